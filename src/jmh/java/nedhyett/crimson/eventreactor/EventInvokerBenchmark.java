@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.eventreactor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single handler call through each way of reaching it: the generated invoker, the
+ * MethodHandle fallback and plain reflection, which is what the reactor used before.
+ *
+ * @author Ned Hyett
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventInvokerBenchmark {
+
+	public static class TestEvent extends Event {
+
+		public int hits;
+
+	}
+
+	public static class PublicListener {
+
+		@EventSubscribe
+		public void onEvent(TestEvent event) {
+			event.hits++;
+		}
+
+	}
+
+	/**
+	 * Not public, so it can only be reached through a MethodHandle.
+	 */
+	static class HiddenListener {
+
+		@EventSubscribe
+		public void onEvent(TestEvent event) {
+			event.hits++;
+		}
+
+	}
+
+	private final TestEvent event = new TestEvent();
+
+	private final PublicListener publicListener = new PublicListener();
+
+	private final HiddenListener hiddenListener = new HiddenListener();
+
+	private Method reflective;
+
+	private EventInvoker generated;
+
+	private EventInvoker handle;
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		reflective = PublicListener.class.getMethod("onEvent", TestEvent.class);
+		generated = EventInvoker.of(reflective);
+		handle = EventInvoker.of(HiddenListener.class.getMethod("onEvent", TestEvent.class));
+	}
+
+	@Benchmark
+	public int generated() {
+		generated.invoke(publicListener, event);
+		return event.hits;
+	}
+
+	@Benchmark
+	public int methodHandle() {
+		handle.invoke(hiddenListener, event);
+		return event.hits;
+	}
+
+	@Benchmark
+	public int reflection() throws ReflectiveOperationException {
+		reflective.invoke(publicListener, event);
+		return event.hits;
+	}
+
+}
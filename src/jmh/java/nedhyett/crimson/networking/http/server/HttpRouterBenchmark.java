@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server;
+
+import nedhyett.crimson.networking.http.HttpRequest;
+import nedhyett.crimson.networking.http.HttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the provider for a request among N pages, when it is the last one added: through the router, and
+ * by asking every provider in turn as the server used to.
+ *
+ * @author Ned Hyett
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRouterBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int providers;
+
+	private final HttpRouter router = new HttpRouter();
+
+	private final ArrayList<IHttpServerProvider> list = new ArrayList<>();
+
+	private HttpRequest request;
+
+	@Setup
+	public void setup() {
+		for(int i = 0; i < providers; i++) {
+			String path = "/page" + i + "/item";
+			router.add(path, page(path));
+			list.add(page(path));
+		}
+		request = new HttpRequest(Arrays.asList("GET /page" + (providers - 1) + "/item HTTP/1.1", "Host: localhost"));
+	}
+
+	@Benchmark
+	public HttpResponse router() throws Exception {
+		return router.route(request, null, null);
+	}
+
+	@Benchmark
+	public HttpResponse providerList() throws Exception {
+		for(IHttpServerProvider provider : list) {
+			if(!provider.requestIsValid(request, null)) continue;
+			HttpResponse response = provider.handle(request, null, null);
+			if(HttpRouter.isAnswered(response)) return response;
+		}
+		return null;
+	}
+
+	/**
+	 * A provider for one page, checking the path itself as unrouted providers have to.
+	 */
+	private static IHttpServerProvider page(String path) {
+		return new IHttpServerProvider() {
+
+			@Override
+			public boolean requestIsValid(HttpRequest request, Socket socket) {
+				return request.page.equals(path);
+			}
+
+			@Override
+			public HttpResponse handle(HttpRequest request, HttpQueryData data, Socket s) {
+				return HttpResponse.createOneLiner(path);
+			}
+
+		};
+	}
+
+}
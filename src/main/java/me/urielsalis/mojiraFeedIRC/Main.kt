@@ -3,20 +3,17 @@ package me.urielsalis.mojiraFeedIRC
 import me.urielsalis.mojiraFeedIRC.application.MojiraFeedListener
 import me.urielsalis.mojiraFeedIRC.infrastructure.irc.IRCServer
 import me.urielsalis.mojiraFeedIRC.infrastructure.irc.IRCUserStatusManager
-import me.urielsalis.mojiraFeedIRC.infrastructure.mojira.FeedReader
-import java.lang.Exception
-import java.util.concurrent.TimeUnit
+import me.urielsalis.mojiraFeedIRC.infrastructure.mojira.FeedCheckpoint
+import me.urielsalis.mojiraFeedIRC.infrastructure.mojira.FeedRegistry
+import java.io.File
 
 
 fun main(args: Array<String>) {
     IRCServer()
-    val feedReader = FeedReader("https://bugs.mojang.com/activity", MojiraFeedListener(IRCUserStatusManager))
-    while (true) {
-        try {
-            feedReader.readFeed()
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-        TimeUnit.SECONDS.sleep(20)
+    val feeds = FeedRegistry(MojiraFeedListener(IRCUserStatusManager))
+    feeds.register("https://bugs.mojang.com/activity", FeedCheckpoint(File("db/activity.checkpoint")))
+    // any extra project or filter feeds can be passed on the command line
+    for (url in args) {
+        feeds.register(url, FeedCheckpoint(File("db/feed-${Integer.toHexString(url.hashCode())}.checkpoint")))
     }
-}
\ No newline at end of file
+}
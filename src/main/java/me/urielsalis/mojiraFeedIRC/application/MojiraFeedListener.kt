@@ -7,10 +7,9 @@ import me.urielsalis.mojiraFeedIRC.domain.UserStatusManager
 class MojiraFeedListener(private val userStatusManager: UserStatusManager): FeedListener {
 
     override fun listen(feed: Feed) {
-        val userList = userStatusManager.getLoggedInUsers()
-        userList
+        val candidates = userStatusManager.getLoggedInUsers()
                 .filter { !it.nick.contains(feed.author, true) }
-                .filter { !userStatusManager.isMessageIgnored(it, feed.title)}
-                .forEach { userStatusManager.sendMessage(it, feed.author, "#feed", "\u000307${feed.link} \u000F- ${feed.title}") }
+        val recipients = userStatusManager.removeIgnoring(candidates, feed.title)
+        userStatusManager.broadcastMessage(recipients, feed.author, "#feed", "\u000307${feed.link} \u000F- ${feed.title}")
     }
 }
\ No newline at end of file
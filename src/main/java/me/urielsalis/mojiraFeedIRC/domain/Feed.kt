@@ -1,3 +1,3 @@
 package me.urielsalis.mojiraFeedIRC.domain
 
-data class Feed(var link: String, var title: String, var author: String)
+data class Feed(var link: String, var title: String, var author: String, var updated: Long = 0)
@@ -9,7 +9,9 @@ interface UserStatusManager {
     fun logout(user: String)
     fun disconnect(user: User, reason: String)
     fun isMessageIgnored(user: User, message: String): Boolean
+    fun removeIgnoring(users: List<User>, message: String): List<User>
     fun addToIgnoreList(user: User, message: String)
     fun sendMessage(user: User, author: String, channel: String, message: String)
+    fun broadcastMessage(users: List<User>, author: String, channel: String, message: String)
     fun isLoggedIn(nick: String): Boolean
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import nedhyett.Amelia.core.users.User
 import nedhyett.Amelia.managers.ChannelManager
 import org.mindrot.jbcrypt.BCrypt
 import java.io.File
+import java.util.regex.PatternSyntaxException
 
 class FeedServer(nick: String, username: String, hostmask: String, realname: String, val userStatusManager: UserStatusManager) : FakeUser(nick, username, hostmask, realname) {
     override fun handleInput(from: User, command: String, raw: String) {
@@ -56,7 +57,12 @@ class FeedServer(nick: String, username: String, hostmask: String, realname: Str
                                 append(" ").append(pars[i])
                             }
                         }
-                        userStatusManager.addToIgnoreList(from, string)
+                        try {
+                            userStatusManager.addToIgnoreList(from, string)
+                        } catch (e: PatternSyntaxException) {
+                            from.sendNotice(this.id, "Invalid regex: ${e.description}")
+                            return
+                        }
                         from.sendNotice(this.id, "Ignored!")
                     }
                     "LOGIN" -> {
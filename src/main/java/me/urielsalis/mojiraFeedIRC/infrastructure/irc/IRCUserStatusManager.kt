@@ -1,41 +1,62 @@
 package me.urielsalis.mojiraFeedIRC.infrastructure.irc
 
 import me.urielsalis.mojiraFeedIRC.domain.UserStatusManager
+import nedhyett.Amelia.core.connection.Frame
 import nedhyett.Amelia.core.users.User
 import nedhyett.Amelia.managers.UserManager
 import java.io.File
 
 object IRCUserStatusManager: UserStatusManager {
-    val userList = mutableMapOf<String, MutableList<String>>()
+    val userList = mutableMapOf<String, IgnoreList>()
+    private val ignoreIndex = IgnoreIndex()
 
     override fun getAllUsers(): List<User> = UserManager.getAllUsers().toList()
 
     override fun getLoggedInUsers() = userList.map { UserManager.getUser(it.key) }.filterNotNull()
 
     override fun login(user: String) {
-        userList[user] = readIgnoreList(user).toMutableList()
+        val ignoreList = IgnoreList(readIgnoreList(user))
+        userList[user] = ignoreList
+        ignoreIndex.register(user, ignoreList.entries)
     }
 
     override fun isLoggedIn(nick: String): Boolean = userList.containsKey(nick)
 
     override fun logout(user: String) {
         userList.remove(user)
+        ignoreIndex.remove(user)
     }
 
     override fun disconnect(user: User, reason: String) {
         userList.remove(user.nick)
+        ignoreIndex.remove(user.nick)
         user.quit(reason)
     }
 
     override fun isMessageIgnored(user: User, message: String): Boolean =
-        userList[user.nick].orEmpty().any { message.matches(it.toRegex()) }
+        userList[user.nick]?.matches(message) ?: false
+
+    override fun removeIgnoring(users: List<User>, message: String): List<User> {
+        val suppressed = ignoreIndex.suppressedBy(message)
+        if (suppressed.isEmpty) {
+            return users
+        }
+        return users.filter { it.nick !in suppressed }
+    }
 
     override fun sendMessage(user: User, author: String, channel: String, message: String) {
         user.sendRaw(author, "PRIVMSG $channel :$message")
     }
 
+    override fun broadcastMessage(users: List<User>, author: String, channel: String, message: String) {
+        val frame = Frame(author, "PRIVMSG $channel :$message") // encode once, every user gets a view of the same bytes
+        users.forEach { it.sendFrame(frame) }
+    }
+
     override fun addToIgnoreList(user: User, message: String) {
-        userList[user.nick]?.add(message)
+        val ignoreList = userList[user.nick] ?: return
+        ignoreList.add(message)
+        ignoreIndex.add(user.nick, message)
         saveIgnoreList(user.nick)
     }
 
@@ -44,7 +65,7 @@ object IRCUserStatusManager: UserStatusManager {
         file.delete()
         file.createNewFile()
         val printWritter = file.printWriter()
-        userList[user].orEmpty().forEach { printWritter.println(it) }
+        userList[user]?.entries.orEmpty().forEach { printWritter.println(it) }
         printWritter.close()
     }
 
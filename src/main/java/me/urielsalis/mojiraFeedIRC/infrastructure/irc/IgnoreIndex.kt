@@ -0,0 +1,86 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.irc
+
+import java.util.BitSet
+
+/**
+ * Every logged-in user's ignore patterns in one place. Identical patterns are stored once,
+ * with a bitmap of the users (by slot) that ignore them, so filtering a feed item costs one
+ * match per distinct pattern no matter how many users share it, and a single match when
+ * nobody ignores it at all.
+ *
+ * Changes rebuild an immutable snapshot, slot assignments included, and publish it in one write;
+ * matching only ever reads the current snapshot. Slots are reused after a user leaves, so a
+ * bitmap must never be read against the slots of a different snapshot.
+ */
+class IgnoreIndex {
+    private class Snapshot(val patterns: List<Pair<Regex, BitSet>>, val combined: Regex?, val slots: Map<String, Int>)
+
+    /**
+     * The users that ignore one message, as seen by a single snapshot.
+     */
+    class Suppressed internal constructor(private val bits: BitSet, private val slots: Map<String, Int>) {
+        val isEmpty: Boolean
+            get() = bits.isEmpty
+
+        operator fun contains(nick: String): Boolean {
+            val slot = slots[nick] ?: return false
+            return bits.get(slot)
+        }
+    }
+
+    private val slots = mutableMapOf<String, Int>()
+    private val freeSlots = BitSet()
+    private var nextSlot = 0
+    private val users = mutableMapOf<String, BitSet>()
+
+    @Volatile
+    private var snapshot = Snapshot(emptyList(), null, emptyMap())
+
+    @Synchronized
+    fun register(nick: String, patterns: List<String>) {
+        remove(nick)
+        val slot = if (freeSlots.isEmpty) nextSlot++ else freeSlots.nextSetBit(0).also { freeSlots.clear(it) }
+        slots[nick] = slot
+        patterns.forEach { users.getOrPut(it) { BitSet() }.set(slot) }
+        rebuild()
+    }
+
+    @Synchronized
+    fun add(nick: String, pattern: String) {
+        val slot = slots[nick] ?: return
+        users.getOrPut(pattern) { BitSet() }.set(slot)
+        rebuild()
+    }
+
+    @Synchronized
+    fun remove(nick: String) {
+        val slot = slots.remove(nick) ?: return
+        freeSlots.set(slot)
+        val iterator = users.values.iterator()
+        while (iterator.hasNext()) {
+            val bits = iterator.next()
+            bits.clear(slot)
+            if (bits.isEmpty) iterator.remove()
+        }
+        rebuild()
+    }
+
+    /**
+     * Returns every user that ignores this message.
+     */
+    fun suppressedBy(message: String): Suppressed {
+        val snapshot = snapshot
+        val result = BitSet()
+        if (snapshot.combined == null || snapshot.combined.matches(message)) {
+            snapshot.patterns.forEach { (regex, bits) ->
+                if (regex.matches(message)) result.or(bits)
+            }
+        }
+        return Suppressed(result, snapshot.slots)
+    }
+
+    private fun rebuild() {
+        val patterns = users.entries.map { it.key.toRegex() to it.value.clone() as BitSet }
+        snapshot = Snapshot(patterns, IgnoreList.combine(users.keys.toList()), slots.toMap())
+    }
+}
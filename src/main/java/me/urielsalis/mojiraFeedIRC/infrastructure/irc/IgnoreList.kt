@@ -0,0 +1,77 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.irc
+
+import nedhyett.crimson.logging.CrimsonLog
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * A user's ignore list, kept compiled so matching a feed item never recompiles a pattern.
+ * The patterns are folded into a single alternation whenever that is safe, so one match call
+ * checks every pattern; the compiled form is only rebuilt when the list changes.
+ */
+class IgnoreList(patterns: List<String>) {
+    private val patterns = mutableListOf<String>()
+
+    @Volatile
+    private var compiled: List<Regex> = emptyList()
+
+    @Volatile
+    private var combined: Regex? = null
+
+    init {
+        patterns.forEach {
+            try {
+                it.toRegex()
+                this.patterns.add(it)
+            } catch (e: PatternSyntaxException) {
+                CrimsonLog.warning("Skipping invalid ignore pattern $it: ${e.description}")
+            }
+        }
+        rebuild()
+    }
+
+    val entries: List<String>
+        get() = synchronized(this) { patterns.toList() }
+
+    /**
+     * Adds a pattern to the list. Throws PatternSyntaxException if it isn't a valid regex.
+     */
+    fun add(pattern: String) {
+        pattern.toRegex()
+        synchronized(this) {
+            patterns.add(pattern)
+            rebuild()
+        }
+    }
+
+    fun matches(message: String): Boolean {
+        val combined = combined
+        if (combined != null) {
+            return combined.matches(message)
+        }
+        return compiled.any { it.matches(message) }
+    }
+
+    private fun rebuild() {
+        compiled = patterns.map { it.toRegex() }
+        combined = combine(patterns)
+    }
+
+    companion object {
+        private val backReference = "\\\\(\\d|k<)".toRegex()
+
+        /**
+         * Folds the patterns into one alternation, or returns null if that can't be done safely.
+         */
+        fun combine(patterns: List<String>): Regex? {
+            if (patterns.isEmpty() || patterns.any { backReference.containsMatchIn(it) }) {
+                return null // group numbers shift inside an alternation, so back references would point at the wrong group
+            }
+            return try {
+                Pattern.compile(patterns.joinToString("|") { "(?:$it)" }).toRegex()
+            } catch (e: PatternSyntaxException) {
+                null // e.g. the same named group used in two patterns
+            }
+        }
+    }
+}
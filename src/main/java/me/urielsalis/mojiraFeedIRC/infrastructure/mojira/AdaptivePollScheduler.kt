@@ -0,0 +1,57 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
+
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Picks the delay before the next poll from how busy the feed has been. It keeps a moving
+ * average of new entries per second and aims for about targetPerPoll new entries on each poll,
+ * so polls speed up during bursts and back off towards maxInterval when the feed is quiet.
+ * Failures back off exponentially from the current interval instead. Every delay gets a bit of
+ * jitter so several pollers never settle into lockstep.
+ */
+class AdaptivePollScheduler(
+        private val minInterval: Long = TimeUnit.SECONDS.toMillis(5),
+        private val maxInterval: Long = TimeUnit.MINUTES.toMillis(2),
+        initialInterval: Long = TimeUnit.SECONDS.toMillis(20),
+        private val maxErrorBackoff: Long = TimeUnit.MINUTES.toMillis(10),
+        private val targetPerPoll: Double = 3.0,
+        private val smoothing: Double = 0.3,
+        private val jitter: Double = 0.2) {
+
+    var interval = initialInterval.coerceIn(minInterval, maxInterval)
+        private set
+    private var rate = targetPerPoll / interval // new entries per millisecond
+    private var lastPoll = 0L
+    private var errors = 0
+
+    /**
+     * Called after a successful poll that delivered newEntries items. Returns the delay in
+     * milliseconds before the next poll.
+     */
+    @Synchronized
+    fun onSuccess(newEntries: Int, now: Long = System.currentTimeMillis()): Long {
+        errors = 0
+        val elapsed = if (lastPoll == 0L) interval else (now - lastPoll).coerceAtLeast(1)
+        lastPoll = now
+        rate = smoothing * (newEntries.toDouble() / elapsed) + (1 - smoothing) * rate
+        interval = if (rate <= 0.0) maxInterval else (targetPerPoll / rate).toLong().coerceIn(minInterval, maxInterval)
+        return withJitter(interval)
+    }
+
+    /**
+     * Called after a failed poll. Returns the delay in milliseconds before trying again.
+     */
+    @Synchronized
+    fun onError(): Long {
+        errors++
+        val backoff = interval * (1L shl minOf(errors, 16))
+        return withJitter(backoff.coerceAtMost(maxErrorBackoff))
+    }
+
+    private fun withJitter(delay: Long): Long {
+        if (jitter <= 0.0) return delay
+        val factor = 1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter)
+        return (delay * factor).toLong().coerceAtLeast(1)
+    }
+}
@@ -0,0 +1,3 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
+
+data class AtomEntry(val link: String, val title: String, val author: String, val updated: Long = 0) // updated is epoch millis, 0 if unknown
@@ -0,0 +1,108 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
+
+import java.io.InputStream
+import java.time.OffsetDateTime
+import java.time.format.DateTimeParseException
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamReader
+
+/**
+ * Pulls entries out of an Atom feed one at a time, so the caller can stop reading as soon as
+ * it reaches an entry it has already seen instead of building the whole document.
+ */
+object AtomStreamParser {
+    private val factory = XMLInputFactory.newInstance().apply {
+        setProperty(XMLInputFactory.SUPPORT_DTD, false)
+        setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+        setProperty(XMLInputFactory.IS_COALESCING, true)
+    }
+
+    /**
+     * Calls onEntry for every entry in document order until it returns false or the feed ends.
+     */
+    fun parse(input: InputStream, onEntry: (AtomEntry) -> Boolean) {
+        val reader = factory.createXMLStreamReader(input)
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.localName == "entry") {
+                    if (!onEntry(readEntry(reader))) {
+                        return
+                    }
+                }
+            }
+        } finally {
+            reader.close()
+        }
+    }
+
+    private fun readEntry(reader: XMLStreamReader): AtomEntry {
+        var link = ""
+        var title = ""
+        var author = ""
+        var updated = 0L
+        while (reader.hasNext()) {
+            when (reader.next()) {
+                XMLStreamConstants.START_ELEMENT -> when (reader.localName) {
+                    "title" -> title = readText(reader)
+                    "link" -> {
+                        val rel = reader.getAttributeValue(null, "rel")
+                        if (link == "" && (rel == null || rel == "alternate")) {
+                            link = reader.getAttributeValue(null, "href") ?: ""
+                        }
+                    }
+                    "author" -> author = readAuthor(reader, author)
+                    "updated" -> updated = parseTime(readText(reader))
+                    "published" -> if (updated == 0L) updated = parseTime(readText(reader)) else skip(reader)
+                    else -> skip(reader)
+                }
+                XMLStreamConstants.END_ELEMENT -> if (reader.localName == "entry") return AtomEntry(link, title, author, updated)
+            }
+        }
+        return AtomEntry(link, title, author, updated)
+    }
+
+    private fun parseTime(text: String): Long = try {
+        OffsetDateTime.parse(text.trim()).toInstant().toEpochMilli()
+    } catch (e: DateTimeParseException) {
+        0L
+    }
+
+    private fun readAuthor(reader: XMLStreamReader, current: String): String {
+        var name = current
+        while (reader.hasNext()) {
+            when (reader.next()) {
+                XMLStreamConstants.START_ELEMENT -> if (reader.localName == "name" && current == "") name = readText(reader) else skip(reader)
+                XMLStreamConstants.END_ELEMENT -> return name // only the first author is kept, like ROME did
+            }
+        }
+        return name
+    }
+
+    /**
+     * Reads all the text inside the current element (including nested xhtml), leaving the
+     * reader on its end tag.
+     */
+    private fun readText(reader: XMLStreamReader): String {
+        val text = StringBuilder()
+        var depth = 1
+        while (depth > 0 && reader.hasNext()) {
+            when (reader.next()) {
+                XMLStreamConstants.START_ELEMENT -> depth++
+                XMLStreamConstants.END_ELEMENT -> depth--
+                XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> text.append(reader.text)
+            }
+        }
+        return text.toString()
+    }
+
+    private fun skip(reader: XMLStreamReader) {
+        var depth = 1
+        while (depth > 0 && reader.hasNext()) {
+            when (reader.next()) {
+                XMLStreamConstants.START_ELEMENT -> depth++
+                XMLStreamConstants.END_ELEMENT -> depth--
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
+
+import me.urielsalis.mojiraFeedIRC.domain.Feed
+
+/**
+ * The last N feed fingerprints, in insertion order. Membership, insertion and eviction of the
+ * oldest entry are all O(1): fingerprints live in a ring for ordering and in an open-addressed
+ * hash table (linear probing, backward-shift deletion) for lookups.
+ */
+class DedupWindow(val capacity: Int) {
+    private val ring = LongArray(capacity)
+    private var head = 0
+    private var size = 0
+    private val table: LongArray
+    private val mask: Int
+
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+        var tableSize = 2
+        while (tableSize < capacity * 2) tableSize = tableSize shl 1
+        table = LongArray(tableSize) // 0 marks an empty slot
+        mask = tableSize - 1
+    }
+
+    val count: Int
+        get() = size
+
+    operator fun contains(fingerprint: Long): Boolean {
+        val key = normalise(fingerprint)
+        var i = slot(key)
+        while (true) {
+            val current = table[i]
+            if (current == 0L) return false
+            if (current == key) return true
+            i = (i + 1) and mask
+        }
+    }
+
+    /**
+     * Adds the fingerprint, evicting the oldest one if the window is full. Returns false if it
+     * was already present.
+     */
+    fun add(fingerprint: Long): Boolean {
+        val key = normalise(fingerprint)
+        if (contains(key)) return false
+        if (size == capacity) {
+            remove(ring[head])
+            head = (head + 1) % capacity
+            size--
+        }
+        ring[(head + size) % capacity] = key
+        size++
+        var i = slot(key)
+        while (table[i] != 0L) i = (i + 1) and mask
+        table[i] = key
+        return true
+    }
+
+    /**
+     * Fingerprints from oldest to newest.
+     */
+    fun toList(): List<Long> = (0 until size).map { ring[(head + it) % capacity] }
+
+    private fun remove(key: Long) {
+        var i = slot(key)
+        while (table[i] != key) {
+            if (table[i] == 0L) return
+            i = (i + 1) and mask
+        }
+        // shift later members of the probe run back so lookups never stop at the hole
+        var hole = i
+        var j = (i + 1) and mask
+        while (table[j] != 0L) {
+            val home = slot(table[j])
+            val distanceToJ = (j - home) and mask
+            val distanceToHole = (hole - home) and mask
+            if (distanceToHole < distanceToJ) {
+                table[hole] = table[j]
+                hole = j
+            }
+            j = (j + 1) and mask
+        }
+        table[hole] = 0L
+    }
+
+    private fun slot(key: Long): Int = (key xor (key ushr 32)).toInt() and mask
+
+    private fun normalise(fingerprint: Long): Long = if (fingerprint == 0L) 1L else fingerprint
+}
+
+/**
+ * 64-bit FNV-1a over the entry's fields, finished with the MurmurHash3 mixer so the low bits
+ * used for table slots are well spread.
+ */
+fun Feed.fingerprint(): Long {
+    var hash = -0x340d631b7bdddcdbL // FNV offset basis
+    fun mix(value: String) {
+        for (c in value) {
+            hash = (hash xor c.toLong()) * 0x100000001b3L
+        }
+        hash = (hash xor 0xFFFF) * 0x100000001b3L // field separator
+    }
+    mix(link)
+    mix(title)
+    mix(author)
+    hash = (hash xor (hash ushr 33)) * -0xae502812aa7333L
+    hash = (hash xor (hash ushr 33)) * -0x3b314601e57a13adL
+    return hash xor (hash ushr 33)
+}
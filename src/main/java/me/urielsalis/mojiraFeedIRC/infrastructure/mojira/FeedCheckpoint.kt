@@ -0,0 +1,117 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
+
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+
+/**
+ * Append-only record of the fingerprints a FeedReader has delivered, plus the newest entry
+ * time of every fully delivered poll (the high-water mark), so a restart neither replays nor skips
+ * items.
+ *
+ * Every record is 16 bytes: fingerprint then entry time. Delivered entries are written with
+ * time 0; a record with fingerprint 0 only carries the high-water mark. A torn record at the end of the file (crash mid-write) is
+ * ignored. Once the file holds twice as many records as the window it is rewritten from the
+ * window so it never grows without bound.
+ */
+class FeedCheckpoint(private val file: File) {
+    private var out: DataOutputStream? = null
+    private var records = 0
+    var highWaterMark = 0L
+        private set
+
+    /**
+     * Replays the file into the window and returns the high-water mark.
+     */
+    fun load(window: DedupWindow): Long {
+        if (file.exists()) {
+            DataInputStream(FileInputStream(file).buffered()).use { input ->
+                try {
+                    while (true) {
+                        val fingerprint = input.readLong()
+                        val updated = input.readLong()
+                        if (fingerprint != 0L) window.add(fingerprint)
+                        highWaterMark = maxOf(highWaterMark, updated)
+                        records++
+                    }
+                } catch (e: EOFException) {
+                    // end of file, or a torn last record
+                }
+            }
+        }
+        compact(window)
+        return highWaterMark
+    }
+
+    /**
+     * Records a fingerprint as delivered, once the listener has returned. Records are buffered
+     * until the next flush, so a crash can at worst hand the entries of one merge on again,
+     * never lose them.
+     */
+    fun record(fingerprint: Long, window: DedupWindow) {
+        append(if (fingerprint == 0L) 1L else fingerprint, 0L, window) // 0 is reserved for high-water records
+    }
+
+    /**
+     * Records the high-water mark once a poll has been fully delivered. Entries older than it
+     * are never delivered again, even once they drop out of the window.
+     */
+    fun markHighWater(updated: Long, window: DedupWindow) {
+        if (updated > highWaterMark) {
+            append(0L, updated, window)
+            highWaterMark = updated
+        }
+    }
+
+    private fun append(fingerprint: Long, updated: Long, window: DedupWindow) {
+        if (records >= window.capacity * 2) {
+            compact(window)
+        }
+        val out = out ?: return
+        out.writeLong(fingerprint)
+        out.writeLong(updated)
+        records++
+    }
+
+    /**
+     * Writes out everything recorded since the last flush; called once per merge.
+     */
+    fun flush() {
+        out?.flush()
+    }
+
+    fun close() {
+        out?.close()
+        out = null
+    }
+
+    private fun compact(window: DedupWindow) {
+        close()
+        file.absoluteFile.parentFile?.mkdirs()
+        val temp = File(file.path + ".tmp")
+        DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { output ->
+            output.writeLong(0L)
+            output.writeLong(highWaterMark)
+            window.toList().forEach {
+                output.writeLong(it)
+                output.writeLong(0L)
+            }
+        }
+        // the live file is only ever replaced, never deleted first, so a crash here leaves one of the two intact
+        try {
+            Files.move(temp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE)
+        } catch (e: AtomicMoveNotSupportedException) {
+            Files.move(temp.toPath(), file.toPath(), REPLACE_EXISTING)
+        }
+        records = window.count + 1
+        out = DataOutputStream(BufferedOutputStream(FileOutputStream(file, true)))
+    }
+}
@@ -1,29 +1,86 @@
 package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
 
-import com.sun.syndication.feed.synd.SyndEntryImpl
-import com.sun.syndication.io.SyndFeedInput
-import com.sun.syndication.io.XmlReader
 import me.urielsalis.mojiraFeedIRC.domain.Feed
-import me.urielsalis.mojiraFeedIRC.domain.FeedListener
-import org.apache.commons.collections4.queue.CircularFifoQueue
+import java.io.IOException
+import java.net.HttpURLConnection
 import java.net.URL
+import java.util.concurrent.TimeUnit
 
-class FeedReader(private val url: String, private val feedListener: FeedListener) {
-    val queue = CircularFifoQueue<Feed>(200)
+class FeedReader(val url: String, windowSize: Int = 200, private val checkpoint: FeedCheckpoint? = null) {
+    val window = DedupWindow(windowSize)
+    // what has actually reached the listener, which is all the checkpoint may ever hold
+    private val delivered = DedupWindow(windowSize)
+    private var highWaterMark = checkpoint?.load(delivered) ?: 0L
+    private var etag: String? = null
+    private var lastModified: String? = null
 
-    fun readFeed() {
-        val feedSource = URL(url)
-        val input = SyndFeedInput()
-        val feed = input.build(XmlReader(feedSource))
-        val entries = feed.entries
-        entries
-            .map {
-                (it as SyndEntryImpl).toFeed()
+    init {
+        delivered.toList().forEach { window.add(it) }
+    }
+
+    /**
+     * Polls the feed once and returns the entries not seen before, oldest first. Nothing is
+     * checkpointed until the entries are reported back through [delivered] and [deliveredUpTo].
+     */
+    fun fetch(): FeedBatch {
+        val connection = URL(url).openConnection() as HttpURLConnection
+        connection.connectTimeout = TimeUnit.SECONDS.toMillis(15).toInt()
+        connection.readTimeout = TimeUnit.SECONDS.toMillis(30).toInt()
+        etag?.let { connection.setRequestProperty("If-None-Match", it) }
+        lastModified?.let { connection.setRequestProperty("If-Modified-Since", it) }
+        try {
+            when (connection.responseCode) {
+                HttpURLConnection.HTTP_NOT_MODIFIED -> return FeedBatch(this, emptyList(), highWaterMark) // nothing new since the last poll
+                HttpURLConnection.HTTP_OK -> Unit
+                else -> throw IOException("Unexpected response ${connection.responseCode} from $url")
             }
-            .filterNot { queue.contains(it) }
-            .forEach {
-                queue.add(it)
-                feedListener.listen(it)
+            var newest = highWaterMark
+            val fresh = ArrayList<Feed>()
+            connection.inputStream.use { input ->
+                AtomStreamParser.parse(input) { entry ->
+                    val feed = entry.toFeed()
+                    val fingerprint = feed.fingerprint()
+                    if (fingerprint in window || entry.updated in 1 until highWaterMark) {
+                        false // entries are newest first, everything after this was already seen
+                    } else {
+                        window.add(fingerprint)
+                        fresh.add(feed)
+                        newest = maxOf(newest, entry.updated)
+                        true
+                    }
+                }
             }
+            // raised only after the whole poll was read, so a failure mid-poll can't hide the older half of it
+            highWaterMark = newest
+            // only remember the validators once the body was handled, otherwise a failed parse would be hidden behind 304s
+            etag = connection.getHeaderField("ETag")
+            lastModified = connection.getHeaderField("Last-Modified")
+            return FeedBatch(this, fresh.asReversed(), newest)
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    /**
+     * Records an entry from this feed as handed to the listener (or already handed on by
+     * another feed).
+     */
+    fun delivered(fingerprint: Long) {
+        delivered.add(fingerprint)
+        checkpoint?.record(fingerprint, delivered)
     }
-}
\ No newline at end of file
+
+    /**
+     * Persists the high-water mark of a batch once every entry in it has been delivered, and
+     * writes out the entries recorded during the merge along with it.
+     */
+    fun deliveredUpTo(newest: Long) {
+        checkpoint?.markHighWater(newest, delivered)
+        checkpoint?.flush()
+    }
+}
+
+/**
+ * The new entries from one poll, oldest first, and the newest entry time the poll saw.
+ */
+class FeedBatch(val reader: FeedReader, val feeds: List<Feed>, val newest: Long)
@@ -0,0 +1,149 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
+
+import me.urielsalis.mojiraFeedIRC.domain.Feed
+import me.urielsalis.mojiraFeedIRC.domain.FeedListener
+import nedhyett.crimson.logging.CrimsonLog
+import nedhyett.crimson.logging.Profiler
+import java.util.PriorityQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Follows any number of feeds at once. Each source is fetched on a bounded worker pool on its own
+ * adaptive schedule, so a slow source only ties up one worker and never holds back the others.
+ * New entries from every source are merged on a single dispatch thread: batches that arrive within
+ * mergeDelay of each other are delivered together in time order, and an entry already delivered by
+ * another source is dropped.
+ */
+class FeedRegistry(private val feedListener: FeedListener,
+                   fetchThreads: Int = 4,
+                   windowSize: Int = 1000,
+                   private val mergeDelay: Long = TimeUnit.SECONDS.toMillis(2)) {
+
+    private val sources = ConcurrentHashMap<String, FeedSource>()
+    private val workers: ExecutorService = Executors.newFixedThreadPool(fetchThreads, namedThreads("FeedFetcher"))
+    // runs the poll timers as well as the merge, so the pending queue and window need no locking
+    private val dispatcher: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor(namedThreads("FeedDispatcher"))
+    // timestamps only have second resolution, so ties go by arrival to keep each feed's own order
+    private val pending = PriorityQueue<PendingFeed>(compareBy<PendingFeed>({ it.feed.updated }, { it.seq }))
+    private var sequence = 0L
+    private val pendingBatches = ArrayList<FeedBatch>()
+    private val window = DedupWindow(windowSize)
+    private var drainScheduled = false
+    private val profiler = Profiler.getProfiler("Feeds")
+
+    /**
+     * Starts following the feed at url. Registering the same url twice has no effect.
+     */
+    fun register(url: String, checkpoint: FeedCheckpoint? = null,
+                 scheduler: AdaptivePollScheduler = AdaptivePollScheduler()) {
+        val source = FeedSource(FeedReader(url, checkpoint = checkpoint), scheduler)
+        if (sources.putIfAbsent(url, source) == null) {
+            dispatcher.execute { workers.execute { poll(source) } }
+        }
+    }
+
+    /**
+     * Per source fetch latency, keyed by url.
+     */
+    fun latencies(): Map<String, SourceLatency> = sources.mapValues { it.value.latency() }
+
+    fun stop() {
+        dispatcher.shutdownNow()
+        workers.shutdownNow()
+    }
+
+    private fun poll(source: FeedSource) {
+        val start = System.nanoTime()
+        val delay = try {
+            val batch = source.reader.fetch()
+            source.recordSuccess(System.nanoTime() - start)
+            profiler.record("poll", System.nanoTime() - start)
+            if (batch.feeds.isNotEmpty()) {
+                dispatcher.execute { merge(batch) }
+            }
+            source.scheduler.onSuccess(batch.feeds.size)
+        } catch (e: Exception) {
+            source.recordFailure(System.nanoTime() - start)
+            profiler.record("poll failed", System.nanoTime() - start)
+            CrimsonLog.warning("Polling ${source.reader.url} failed")
+            CrimsonLog.warning(e)
+            source.scheduler.onError()
+        }
+        if (!dispatcher.isShutdown) {
+            dispatcher.schedule({ workers.execute { poll(source) } }, delay, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun merge(batch: FeedBatch) {
+        batch.feeds.forEach { pending.add(PendingFeed(it, batch.reader, sequence++)) }
+        pendingBatches.add(batch)
+        if (!drainScheduled) {
+            drainScheduled = true
+            dispatcher.schedule(this::drain, mergeDelay, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun drain() {
+        drainScheduled = false
+        while (pending.isNotEmpty()) {
+            val (feed, reader) = pending.poll()
+            val fingerprint = feed.fingerprint()
+            if (fingerprint !in window) { // otherwise already delivered by another source
+                window.add(fingerprint)
+                val start = System.nanoTime()
+                try {
+                    feedListener.listen(feed)
+                } catch (e: Exception) {
+                    CrimsonLog.warning(e)
+                }
+                profiler.record("fan-out", System.nanoTime() - start)
+            }
+            // checkpointed only once the listener has it, so a crash while entries wait here loses none of them
+            reader.delivered(fingerprint)
+        }
+        // every pending batch has now gone out in full, so nothing older than their newest entries is left
+        pendingBatches.forEach { it.reader.deliveredUpTo(it.newest) }
+        pendingBatches.clear()
+    }
+
+    private fun namedThreads(prefix: String) = object : java.util.concurrent.ThreadFactory {
+        private val count = AtomicInteger()
+        override fun newThread(r: Runnable) = Thread(r, "$prefix-${count.getAndIncrement()}")
+    }
+}
+
+private data class PendingFeed(val feed: Feed, val reader: FeedReader, val seq: Long)
+
+data class SourceLatency(val lastMillis: Long, val averageMillis: Long, val maxMillis: Long, val polls: Long, val failures: Long)
+
+private class FeedSource(val reader: FeedReader, val scheduler: AdaptivePollScheduler) {
+    private var last = 0L
+    private var average = 0L
+    private var max = 0L
+    private var polls = 0L
+    private var failures = 0L
+
+    @Synchronized
+    fun recordSuccess(nanos: Long) = record(nanos)
+
+    @Synchronized
+    fun recordFailure(nanos: Long) {
+        failures++
+        record(nanos)
+    }
+
+    private fun record(nanos: Long) {
+        last = TimeUnit.NANOSECONDS.toMillis(nanos)
+        average = if (polls == 0L) last else (average * 7 + last) / 8
+        max = maxOf(max, last)
+        polls++
+    }
+
+    @Synchronized
+    fun latency() = SourceLatency(last, average, max, polls, failures)
+}
@@ -31,11 +31,16 @@
 package nedhyett.Amelia;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import nedhyett.Amelia.core.connection.Frame;
 import nedhyett.Amelia.core.users.User;
 import nedhyett.Amelia.enums.EnumChannelModes;
 import nedhyett.Amelia.managers.ChannelManager;
+import nedhyett.Amelia.managers.UserManager;
 import nedhyett.crimson.logging.CrimsonLog;
 
 /**
@@ -71,19 +76,35 @@ public class Channel {
     public String key = "";
 
     /**
-     * The list of users currently in the channel.
+     * The set of users currently in the channel.
      */
-    private final ArrayList<User> activeUsers = new ArrayList<>();
+    private final Set<User> activeUsers = ConcurrentHashMap.newKeySet();
 
     /**
-     * The list of nicknames that have operator status in this channel.
+     * Immutable copy of activeUsers, replaced whenever someone joins or leaves. Broadcasts
+     * iterate this so they never hold a lock while writing to sockets.
      */
-    private final ArrayList<String> ops = new ArrayList<>();
+    private volatile User[] members = new User[0];
 
     /**
-     * The list of nicknames that have voice status in this channel.
+     * Guards changes to activeUsers, members and closed.
      */
-    private final ArrayList<String> voices = new ArrayList<>();
+    private final Object membershipLock = new Object();
+
+    /**
+     * Set once the last user leaves and the channel is closed. A closed channel can't be joined.
+     */
+    private boolean closed = false;
+
+    /**
+     * The set of nicknames that have operator status in this channel.
+     */
+    private final Set<String> ops = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The set of nicknames that have voice status in this channel.
+     */
+    private final Set<String> voices = ConcurrentHashMap.newKeySet();
 
     /**
      * List of hostmasks that are banned from this channel. (not implemented)
@@ -99,7 +120,7 @@ public class Channel {
      * List of users that are invited to join this channel. Only useful if the channel is
      * invite-only. (not implemented)
      */
-    private final ArrayList<String> invitedUsers = new ArrayList<>();
+    private final Set<String> invitedUsers = ConcurrentHashMap.newKeySet();
 
     /**
      * Can people only be <b>INVITE</b>'d into this channel?
@@ -155,18 +176,30 @@ public class Channel {
      * Allow a user to join the channel.
      *
      * @param user
+     *
+     * @return false if the channel was closed in the meantime (get or create it again and retry)
      */
-    public synchronized void join(User user) {
-        this.activeUsers.add(user);
-        if (this.activeUsers.size() == 1) {
-            this.ops.add(user.nick);
+    public boolean join(User user) {
+        synchronized (this.membershipLock) {
+            if (this.closed) {
+                return false;
+            }
+            if (!this.activeUsers.add(user)) {
+                return true;
+            }
+            if (this.activeUsers.size() == 1) {
+                this.ops.add(user.nick);
+            }
+            this.members = this.activeUsers.toArray(new User[0]);
         }
+        user.channels.add(this);
         this.sendRaw(user.getID(), "JOIN :" + this.name);
         if (this.canPerformOperatorFunction(user.nick)) {
             this.sendRaw(Amelia.config.serverHost, "MODE " + this.name + " +o " + user.nick);
         } else if (canPerformVoiceFunction(user.nick)) {
             this.sendRaw(Amelia.config.serverHost, "MODE " + this.name + " +v " + user.nick);
         }
+        return true;
     }
 
     /**
@@ -175,13 +208,9 @@ public class Channel {
      * @param user
      * @param reason
      */
-    public synchronized  void leave(User user, String reason) {
+    public void leave(User user, String reason) {
         this.sendRaw(user.getID(), "PART " + this.name + " :" + reason);
-        this.activeUsers.remove(user);
-        if (this.activeUsers.isEmpty()) {
-            CrimsonLog.info("Closing channel " + this.name);
-            ChannelManager.closeChannel(this.name);
-        }
+        this.leaveNoAnnounce(user);
     }
 
     /**
@@ -189,11 +218,20 @@ public class Channel {
      *
      * @param user
      */
-    public synchronized  void leaveNoAnnounce(User user) {
-        this.activeUsers.remove(user);
-        if (this.activeUsers.isEmpty()) {
+    public void leaveNoAnnounce(User user) {
+        boolean empty;
+        synchronized (this.membershipLock) {
+            if (!this.activeUsers.remove(user)) {
+                return;
+            }
+            this.members = this.activeUsers.toArray(new User[0]);
+            empty = this.activeUsers.isEmpty();
+            this.closed = empty;
+        }
+        user.channels.remove(this);
+        if (empty) {
             CrimsonLog.info("Closing channel " + this.name);
-            ChannelManager.closeChannel(this.name);
+            ChannelManager.closeChannel(this);
         }
     }
 
@@ -203,8 +241,11 @@ public class Channel {
      * @param origin
      * @param message
      */
-    public synchronized  void sendRaw(String origin, String message) {
-        this.activeUsers.forEach((u) -> u.sendRaw(origin, message));
+    public void sendRaw(String origin, String message) {
+        Frame frame = new Frame(origin, message);
+        for (User u : this.members) {
+            u.sendFrame(frame);
+        }
     }
 
     /**
@@ -223,8 +264,9 @@ public class Channel {
      * @param message
      * @param except
      */
-    public synchronized void sendRawExcept(String origin, String message, User... except) {
-        for (User u : this.activeUsers) {
+    public void sendRawExcept(String origin, String message, User... except) {
+        Frame frame = new Frame(origin, message);
+        for (User u : this.members) {
             boolean exceptu = false;
             for (User u1 : except) {
                 if (u.equals(u1)) {
@@ -235,7 +277,7 @@ public class Channel {
             if (exceptu) {
                 continue;
             }
-            u.sendRaw(origin, message);
+            u.sendFrame(frame);
         }
     }
 
@@ -245,7 +287,7 @@ public class Channel {
      * @param message
      * @param from
      */
-    public synchronized void sendMsg(String message, User from) {
+    public void sendMsg(String message, User from) {
         this.sendRawExcept(from.getID(), "PRIVMSG " + this.name + " :" + message, from);
     }
 
@@ -256,7 +298,7 @@ public class Channel {
      * @param u
      * @return
      */
-    public synchronized boolean canPerformOperatorFunction(User u) {
+    public boolean canPerformOperatorFunction(User u) {
         return canPerformOperatorFunction(u.nick);
     }
 
@@ -266,7 +308,7 @@ public class Channel {
      * @param nick
      * @return
      */
-    public synchronized boolean canPerformOperatorFunction(String nick) {
+    public boolean canPerformOperatorFunction(String nick) {
         if (this.ops.isEmpty()) {
             return true;
         }
@@ -280,7 +322,7 @@ public class Channel {
      * @param u
      * @return
      */
-    public synchronized boolean canPerformVocieFunction(User u) {
+    public boolean canPerformVocieFunction(User u) {
         return canPerformVoiceFunction(u.nick);
     }
 
@@ -290,7 +332,7 @@ public class Channel {
      * @param nick
      * @return
      */
-    public synchronized boolean canPerformVoiceFunction(String nick) {
+    public boolean canPerformVoiceFunction(String nick) {
         if (this.ops.isEmpty()) {
             return true;
         }
@@ -303,7 +345,7 @@ public class Channel {
      *
      * @return
      */
-    public synchronized String getFlags() {
+    public String getFlags() {
         String str = "";
         if (this.inviteOnly) {
             str += EnumChannelModes.inviteOnly.text;
@@ -326,7 +368,7 @@ public class Channel {
      * @param u
      * @return
      */
-    public synchronized boolean isBanned(User u) {
+    public boolean isBanned(User u) {
         return false;
     }
 
@@ -336,7 +378,7 @@ public class Channel {
      * @param u
      * @return
      */
-    public synchronized boolean isInvited(User u) {
+    public boolean isInvited(User u) {
         return false;
     }
 
@@ -346,7 +388,7 @@ public class Channel {
      * @param u
      * @return
      */
-    public synchronized boolean canSpeak(User u) {
+    public boolean canSpeak(User u) {
         if (isBanned(u)) {
             return false;
         }
@@ -362,7 +404,7 @@ public class Channel {
      * @param u
      * @return
      */
-    public synchronized boolean isOp(User u) {
+    public boolean isOp(User u) {
         return this.ops.contains(u.nick);
     }
 
@@ -373,7 +415,7 @@ public class Channel {
      * @param u
      * @return
      */
-    public synchronized boolean isVoice(User u) {
+    public boolean isVoice(User u) {
         return this.voices.contains(u.nick);
     }
 
@@ -382,7 +424,7 @@ public class Channel {
      *
      * @param u
      */
-    public synchronized void op(User u) {
+    public void op(User u) {
         op(u.nick);
     }
 
@@ -391,7 +433,7 @@ public class Channel {
      *
      * @param nick
      */
-    public synchronized void op(String nick) {
+    public void op(String nick) {
         this.ops.add(nick);
     }
 
@@ -400,7 +442,7 @@ public class Channel {
      *
      * @param u
      */
-    public synchronized void deop(User u) {
+    public void deop(User u) {
         deop(u.nick);
     }
 
@@ -409,7 +451,7 @@ public class Channel {
      *
      * @param nick
      */
-    public synchronized void deop(String nick) {
+    public void deop(String nick) {
         this.ops.remove(nick);
     }
 
@@ -418,7 +460,7 @@ public class Channel {
      *
      * @param u
      */
-    public synchronized void voice(User u) {
+    public void voice(User u) {
         voice(u.nick);
     }
 
@@ -427,7 +469,7 @@ public class Channel {
      *
      * @param nick
      */
-    public synchronized void voice(String nick) {
+    public void voice(String nick) {
         this.voices.add(nick);
     }
 
@@ -436,7 +478,7 @@ public class Channel {
      *
      * @param u
      */
-    public synchronized void devoice(User u) {
+    public void devoice(User u) {
         devoice(u.nick);
     }
 
@@ -445,7 +487,7 @@ public class Channel {
      *
      * @param nick
      */
-    public synchronized void devoice(String nick) {
+    public void devoice(String nick) {
         this.voices.remove(nick);
     }
 
@@ -455,7 +497,7 @@ public class Channel {
      * @param u
      * @return
      */
-    public synchronized boolean isInChannel(User u) {
+    public boolean isInChannel(User u) {
         return this.activeUsers.contains(u);
     }
 
@@ -465,11 +507,9 @@ public class Channel {
      * @param nick
      * @return
      */
-    public synchronized boolean isInChannel(String nick) {
-        if (this.activeUsers.stream().anyMatch((u) -> (u.nick.equals(nick)))) {
-            return true;
-        }
-        return false;
+    public boolean isInChannel(String nick) {
+        User u = UserManager.getUser(nick);
+        return u != null && this.isInChannel(u);
     }
 
     /**
@@ -477,7 +517,7 @@ public class Channel {
      *
      * @param u
      */
-    public synchronized void invite(User u) {
+    public void invite(User u) {
         invite(u.nick);
     }
 
@@ -486,7 +526,7 @@ public class Channel {
      *
      * @param nick
      */
-    public synchronized void invite(String nick) {
+    public void invite(String nick) {
         this.invitedUsers.add(nick);
     }
 
@@ -495,7 +535,7 @@ public class Channel {
      *
      * @param u
      */
-    public synchronized void uninvite(User u) {
+    public void uninvite(User u) {
         uninvite(u.nick);
     }
 
@@ -504,19 +544,17 @@ public class Channel {
      *
      * @param nick
      */
-    public synchronized void uninvite(String nick) {
+    public void uninvite(String nick) {
         this.invitedUsers.remove(nick);
     }
 
     /**
-     * Get the active users list.
-     * <p>
-     * WARNING: DO NOT CHANGE THIS LIST DIRECTLY!
+     * Get a copy of the active users list.
      *
      * @return
      */
-    public synchronized ArrayList<User> getActiveUsers() {
-        return this.activeUsers;
+    public ArrayList<User> getActiveUsers() {
+        return new ArrayList<>(Arrays.asList(this.members));
     }
 
     /**
@@ -524,8 +562,8 @@ public class Channel {
      *
      * @return
      */
-    public synchronized int countActiveUsers() {
-        return this.activeUsers.size();
+    public int countActiveUsers() {
+        return this.members.length;
     }
 
     /**
@@ -533,7 +571,7 @@ public class Channel {
      *
      * @return
      */
-    public synchronized boolean isAtUserLimit() {
+    public boolean isAtUserLimit() {
         if (this.userLimit <= 0) {
             return false;
         }
@@ -555,7 +593,7 @@ public class Channel {
      * @param seed       The seed for the RNG.
      * @return The results of your query.
      */
-    public synchronized ArrayList<User> pickRandomUsers(int num, boolean canBeVoice, boolean canBeOp, long seed) {
+    public ArrayList<User> pickRandomUsers(int num, boolean canBeVoice, boolean canBeOp, long seed) {
         if (num >= this.countActiveUsers()) {
             return getActiveUsers();
         }
@@ -30,7 +30,7 @@
  */
 package nedhyett.Amelia;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import nedhyett.Amelia.command.*;
 
 /**
@@ -40,7 +40,32 @@ import nedhyett.Amelia.command.*;
  */
 public class CommandRegistry {
 
-    private static final HashMap<String, ICommand> commands = new HashMap<>();
+    private static final LinkedHashMap<String, ICommand> commands = new LinkedHashMap<>();
+
+    /**
+     * Collision-free hash table built from commands, so a lookup is one case-insensitive hash
+     * over the command name and one comparison. Rebuilt whenever a command is added.
+     */
+    private static volatile Table table = new Table(new String[1], new ICommand[1], 0, 0);
+
+    private static final class Table {
+
+	final String[] names;
+
+	final ICommand[] handlers;
+
+	final int mask;
+
+	final int seed;
+
+	Table(String[] names, ICommand[] handlers, int mask, int seed) {
+	    this.names = names;
+	    this.handlers = handlers;
+	    this.mask = mask;
+	    this.seed = seed;
+	}
+
+    }
 
     /*
      Todo:
@@ -106,8 +131,42 @@ public class CommandRegistry {
      * @param identifier the IRC command to handle
      * @param command    the handler instance
      */
-    public static void addCommand(String identifier, ICommand command) {
-	commands.put(identifier, command);
+    public static synchronized void addCommand(String identifier, ICommand command) {
+	commands.put(identifier.toUpperCase(), command);
+	int size = Integer.highestOneBit(commands.size() * 2 - 1) << 1;
+	for (int seed = 1;; seed++) {
+	    if (seed % 64 == 0) {
+		size <<= 1;
+	    }
+	    String[] names = new String[size];
+	    ICommand[] handlers = new ICommand[size];
+	    boolean collision = false;
+	    for (String name : commands.keySet()) {
+		int slot = hash(name, 0, name.length(), seed) & (size - 1);
+		if (names[slot] != null) {
+		    collision = true;
+		    break;
+		}
+		names[slot] = name;
+		handlers[slot] = commands.get(name);
+	    }
+	    if (!collision) {
+		table = new Table(names, handlers, size - 1, seed);
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Hash the command name in s[start, end), ignoring ASCII case.
+     */
+    private static int hash(String s, int start, int end, int seed) {
+	int h = seed;
+	for (int i = start; i < end; i++) {
+	    h = h * 31 + (s.charAt(i) & 0xDF);
+	}
+	h *= 0x9E3779B9;
+	return h ^ (h >>> 16);
     }
 
     /**
@@ -118,7 +177,7 @@ public class CommandRegistry {
      * @return
      */
     public static boolean hasCommand(String identifer) {
-	return commands.containsKey(identifer);
+	return getCommand(identifer) != null;
     }
 
     /**
@@ -129,7 +188,27 @@ public class CommandRegistry {
      * @return
      */
     public static ICommand getCommand(String identifier) {
-	return commands.get(identifier);
+	return getCommand(identifier, 0, identifier.length());
+    }
+
+    /**
+     * Get the handler for the command found in line[start, end), ignoring case. Lets the
+     * command be looked up in place without cutting it out of the line.
+     *
+     * @param line
+     * @param start
+     * @param end
+     *
+     * @return the handler, or null if there is none
+     */
+    public static ICommand getCommand(String line, int start, int end) {
+	Table t = table;
+	int slot = hash(line, start, end, t.seed) & t.mask;
+	String name = t.names[slot];
+	if (name == null || name.length() != end - start || !line.regionMatches(true, start, name, 0, name.length())) {
+	    return null;
+	}
+	return t.handlers[slot];
     }
 
 }
@@ -109,6 +109,40 @@ public class Util {
 	return new long[]{elapsedDays, elapsedHours, elapsedMins, elapsedSeconds};
     }
 
+    /**
+     * Fold a nick or channel name to its RFC1459 canonical form: ASCII letters are lowercased
+     * and []\ are folded onto their lowercase forms {}|. The lowercase form of ^ is ~, but that
+     * pair is folded the other way, onto ^; both spellings still map to the same key.
+     *
+     * @param in
+     *
+     * @return
+     */
+    public static String casemap(String in) {
+	int i = 0;
+	while (i < in.length()) {
+	    char c = in.charAt(i);
+	    if ((c >= 'A' && c <= ']') || c == '~') {
+		break;
+	    }
+	    i++;
+	}
+	if (i == in.length()) {
+	    return in;
+	}
+	char[] out = in.toCharArray();
+	for (; i < out.length; i++) {
+	    char c = out[i];
+	    if (c >= 'A' && c <= ']') {
+		//'[' '\\' ']' sit right after 'Z', so they fold to '{' '|' '}' along with the letters.
+		out[i] = (char) (c + 32);
+	    } else if (c == '~') {
+		out[i] = '^';
+	    }
+	}
+	return new String(out);
+    }
+
     /**
      * Get a more accurate microtime.
      *
@@ -60,7 +60,7 @@ public class CommandINVITE implements ICommand {
             user.sendRawS(Replies.ERR_NOTONCHANNEL.format(user.nick, args[1]));
             return;
         }
-        if(ChannelManager.getAllChannelsWithUser(UserManager.getUser(args[0])).contains(c)){
+        if(c.isInChannel(args[0])){
            user.sendRawS(Replies.ERR_USERONCHANNEL.format(user.nick, args[0], args[1]));
            return;
         }
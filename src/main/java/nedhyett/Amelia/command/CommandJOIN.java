@@ -56,7 +56,7 @@ public class CommandJOIN implements ICommand {
     }
 
     @Override
-    public synchronized void exec(User user, String[] args, String rawmsg) {
+    public void exec(User user, String[] args, String rawmsg) {
         String[] chans;
         String[] passwrds;
         if (args.length < 2) {
@@ -86,10 +86,7 @@ public class CommandJOIN implements ICommand {
                 //FIXME: what response code to send here?
                 continue;
             }
-            Channel c = ChannelManager.getChannel(channame);
-            if (!ChannelManager.channelExists(channame)) {
-                c = ChannelManager.createChannel(channame);
-            }
+            Channel c = ChannelManager.getOrCreateChannel(channame);
             if (c.isBanned(user)) { //Check if the user is banned
                 user.sendRawS(Replies.ERR_BANNEDFROMCHAN.format(user.nick, c.name));
                 continue;
@@ -106,7 +103,10 @@ public class CommandJOIN implements ICommand {
                 user.sendRawS(Replies.ERR_CHANNELISFULL.format(user.nick, c.name, c.userLimit + ""));
                 continue;
             }
-            c.join(user);
+            while (!c.join(user)) {
+                //The last user left between the lookup and the join, so the channel closed under us.
+                c = ChannelManager.getOrCreateChannel(channame);
+            }
             StringBuilder nicks1 = new StringBuilder();
             for (User u : c.getActiveUsers()) {
                 nicks1.append((c.canPerformOperatorFunction(u.nick)) ? "@" : "").append((c.canPerformVoiceFunction(u.nick)) ? "+" : "").append(u.nick).append(" "); //Compile the NAMES list.
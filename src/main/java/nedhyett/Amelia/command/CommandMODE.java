@@ -82,7 +82,7 @@ public class CommandMODE implements ICommand {
                     target = UserManager.getUser(args[2]);
                 }
                 if (target != null) {
-                    if (!ChannelManager.getAllChannelsWithUser(target).contains(c)) {
+                    if (!c.isInChannel(target)) {
                         user.sendRawS(Replies.ERR_USERNOTINCHANNEL + " " + user.nick + " " + args[2] + " " + c.name + " :They aren't on that channel!");
                         return;
                     }
@@ -55,18 +55,18 @@ public class CommandNICK implements ICommand {
 	    return;
 	}
 
-	if (UserManager.userExists(args[0])) {
+	if (UserManager.userExists(args[0]) && UserManager.getUser(args[0]) != user) {
+	    user.sendRawS(Replies.ERR_NICKNAMEINUSE.format(user.nick, args[0]));
+	    return;
+	}
+	String oldID = user.getID();
+	if (!UserManager.renameUser(user, args[0])) {
 	    user.sendRawS(Replies.ERR_NICKNAMEINUSE.format(user.nick, args[0]));
 	    return;
 	}
 	ChannelManager.getAllChannelsWithUser(user).stream().forEach((c) -> {
-	    c.sendRaw(user.getID(), "NICK " + args[0]);
+	    c.sendRaw(oldID, "NICK " + args[0]);
 	});
-	if (UserManager.userExists(user.nick)) {
-	    UserManager.addUser(args[0], user);
-	    UserManager.dropUser(user.nick);
-	}
-	user.nick = args[0];
     }
 
 }
@@ -68,7 +68,7 @@ public class CommandPRIVMSG implements ICommand {
 	    return;
 	}
 	Channel channel = ChannelManager.getChannel(name);
-	if (channel.noexternal && !ChannelManager.getAllChannelsWithUser(user).contains(channel)) {
+	if (channel.noexternal && !channel.isInChannel(user)) {
 	    user.sendRawS(Replies.ERR_NOTONCHANNEL.format(user.nick, channel.name));
 	    return;
 	}
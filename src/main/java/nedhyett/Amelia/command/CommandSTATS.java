@@ -37,6 +37,7 @@ import nedhyett.Amelia.Util;
 import nedhyett.Amelia.core.users.User;
 import nedhyett.Amelia.enums.Replies;
 import nedhyett.Amelia.managers.UserManager;
+import nedhyett.crimson.logging.Profiler;
 
 /**
  * Handles the STATS command. (not very well however)
@@ -76,6 +77,17 @@ public class CommandSTATS implements ICommand {
 
 		    user.sendRawS(Replies.RPL_STATSUPTIME.format(user.nick, difftext[0], difftext[1], difftext[2], difftext[3]));
 		    break;
+		case "p":
+		    if (!user.isOper) {
+			user.sendRawS(Replies.ERR_NOPRIVILEGES.format(user.nick));
+			break;
+		    }
+		    for (Profiler profiler : Profiler.getProfilers()) {
+			for (String line : profiler.export()) {
+			    user.sendRawS(Replies.RPL_STATSDEBUG.format(user.nick, line));
+			}
+		    }
+		    break;
 		case "l":
 		    for (User u : UserManager.getAllUsers()) {
 			//user.sendRawS(Replies.RPL_STATSLINKINFO.format(user.nick, u.getID(), "-1", "-1", u.getKbWritten() + "", "-1", u.getKbRead() + "", (Util.getMicroTime() - u.connectionOpened) + ""));
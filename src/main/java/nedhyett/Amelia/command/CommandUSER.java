@@ -62,10 +62,14 @@ public class CommandUSER implements ICommand {
 	user.GECOS = GECOS;
 	if (UserManager.userExists(user.nick)) {
 	    user.sendRawS(Replies.ERR_NICKNAMEINUSE.format(user.nick, user.nick));
-	    user.inThread.interrupt();
+	    user.connection.close();
+	    return;
+	}
+	if (!UserManager.addUser(user.nick, user)) {
+	    user.sendRawS(Replies.ERR_NICKNAMEINUSE.format(user.nick, user.nick));
+	    user.connection.close();
 	    return;
 	}
-	UserManager.addUser(user.nick, user);
 	user.sendRawS(Replies.RPL_WELCOME.format(user.nick, user.nick, user.username, user.getHostAddress()));
 	user.sendRawS(Replies.RPL_YOURHOST.format(user.nick, Amelia.config.serverHost, Amelia.getVersion()));
 	user.sendRawS(Replies.RPL_CREATED.format(user.nick, Amelia.startupTime.toString()));
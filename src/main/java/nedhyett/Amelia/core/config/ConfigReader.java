@@ -39,6 +39,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Map.Entry;
 import nedhyett.Amelia.core.connection.IPRange;
+import nedhyett.Amelia.enums.EnumSendQPolicy;
 
 /**
  * Reads and parses the configuration file.
@@ -149,6 +150,7 @@ public class ConfigReader {
 	config.networkDescription = getString(sd, "networkDesc", "Amelia");
 	config.hub = getBoolean(sd, "hub", false);
 	config.maxClients = getInt(sd, "maxClients", 512);
+	config.ioThreads = getInt(sd, "ioThreads", config.ioThreads);
     }
 
     private void parseAdminInfo() {
@@ -254,6 +256,10 @@ public class ConfigReader {
 	    config.noOperFloodLimit = getBoolean(gen, "noOperFloodLimit", true);
 	    config.maxClientQueueFlood = getInt(gen, "maxClientQueueFlood", 20);
 	    config.throttleTime = getInt(gen, "throttleTime", 10);
+	    config.sendQueueLength = getInt(gen, "sendQueueLength", 1024);
+	    config.sendQueuePolicy = EnumSendQPolicy.fromText(getString(gen, "sendQueuePolicy", ""), EnumSendQPolicy.disconnect);
+	    config.pingFrequency = Math.max(1, getInt(gen, "pingFrequency", 90));
+	    config.pingTimeout = Math.max(1, getInt(gen, "pingTimeout", 30));
 	}
     }
 
@@ -34,6 +34,7 @@ package nedhyett.Amelia.core.config;
 import java.util.ArrayList;
 import java.util.HashMap;
 import nedhyett.Amelia.core.connection.IPRange;
+import nedhyett.Amelia.enums.EnumSendQPolicy;
 
 /**
  * Result of ConfigReader.
@@ -76,6 +77,11 @@ public final class Configuration {
      */
     public int maxClients = 512;
     
+    /**
+     * The number of selector loop threads used to service client connections.
+     */
+    public int ioThreads = Runtime.getRuntime().availableProcessors();
+    
     
     /*
      * Channel Settings.
@@ -193,6 +199,26 @@ public final class Configuration {
      */
     public int throttleTime = 10;
     
+    /**
+     * Max number of lines waiting to be written to a client before sendQueuePolicy kicks in.
+     */
+    public int sendQueueLength = 1024;
+    
+    /**
+     * What to do with a client whose send queue is full.
+     */
+    public EnumSendQPolicy sendQueuePolicy = EnumSendQPolicy.disconnect;
+    
+    /**
+     * Seconds of silence from a client before it is sent a PING.
+     */
+    public int pingFrequency = 90;
+    
+    /**
+     * Seconds a client has to answer a PING before it is dropped.
+     */
+    public int pingTimeout = 30;
+    
     
     /*
      * Admin settings.
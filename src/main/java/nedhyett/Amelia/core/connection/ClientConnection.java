@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ * All rights reserved.
+ *
+ * By using this program/package/library you agree to be completely and unconditionally
+ * bound by the agreement displayed below. Any deviation from this agreement will not
+ * be tolerated.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. No part of this text may be modified
+ *    by anyone other than the original copyright holder.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this
+ *    list of conditions and the following disclaimer in the documentation and/or other
+ *    materials provided with the distribution.
+ * 3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ * 4. The redistribution must contain reference to the original author and provide a
+ *    link (or other means) to aquire the original source code from the original copyright holder.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.core.connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nedhyett.Amelia.Amelia;
+import nedhyett.Amelia.CommandRegistry;
+import nedhyett.Amelia.ICommand;
+import nedhyett.Amelia.core.users.User;
+import nedhyett.Amelia.enums.EnumSendQPolicy;
+import nedhyett.Amelia.enums.Replies;
+import nedhyett.Amelia.ping.PingPongThread;
+import nedhyett.Amelia.ping.PingTimeout;
+import nedhyett.crimson.logging.CrimsonLog;
+import nedhyett.crimson.logging.LogLevel;
+import nedhyett.crimson.logging.Profiler;
+
+/**
+ * The non-blocking side of a client connection. Owned by a single SelectorLoop, which calls
+ * back into it whenever the channel is readable or writable.
+ *
+ * @author Ned
+ */
+public class ClientConnection {
+
+    /**
+     * Times every command handler, by handler class.
+     */
+    private static final Profiler profiler = Profiler.getProfiler("Commands");
+
+    private static final ClassValue<String> activities = new ClassValue<String>() {
+
+        @Override
+        protected String computeValue(Class<?> type) {
+            return type.getSimpleName();
+        }
+
+    };
+
+    private final User parent;
+
+    private final SocketChannel channel;
+
+    private final SelectorLoop loop;
+
+    private SelectionKey key;
+
+    /**
+     * Splits incoming bytes into lines.
+     */
+    private final LineFramer framer = new LineFramer();
+
+    private final LineFramer.Listener lines = new LineFramer.Listener() {
+
+        @Override
+        public boolean line(String line) {
+            processLine(line);
+            return !closed;
+        }
+
+        @Override
+        public void overlong() {
+            String nick = getParent().nick;
+            getParent().sendRawS(Replies.ERR_INPUTTOOLONG.format(nick == null ? "*" : nick)); //Not registered yet.
+        }
+
+    };
+
+    /**
+     * Parsed view of the line currently being processed, reused for every line.
+     */
+    private final IRCMessage message = new IRCMessage();
+
+    /**
+     * Lines waiting to be written to the client.
+     */
+    private final SendQueue outbound = new SendQueue(Amelia.config.sendQueueLength);
+
+    /**
+     * Set while a flush is queued on (or being run by) the loop.
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private volatile boolean closed = false;
+
+    /**
+     * When data was last received from the client.
+     */
+    private volatile long lastSeen = System.currentTimeMillis();
+
+    /**
+     * This connection's entry on the PingPongThread wheel.
+     */
+    private PingTimeout pingTimeout;
+
+    /**
+     * Set once the send queue has overflowed and the user is being dropped.
+     */
+    private final AtomicBoolean sendQExceeded = new AtomicBoolean(false);
+
+    /**
+     * Create a new connection wrapper around the provided channel.
+     *
+     * @param parent
+     * @param channel
+     * @param loop
+     */
+    public ClientConnection(User parent, SocketChannel channel, SelectorLoop loop) {
+        this.parent = parent;
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    /**
+     * Get the User instance that owns this connection.
+     *
+     * @return
+     */
+    public User getParent() {
+        return this.parent;
+    }
+
+    /**
+     * Get the loop that services this connection.
+     *
+     * @return
+     */
+    public SelectorLoop getLoop() {
+        return this.loop;
+    }
+
+    /**
+     * Is this connection still usable?
+     *
+     * @return
+     */
+    public boolean isOpen() {
+        return !this.closed && this.channel.isOpen();
+    }
+
+    /**
+     * Get the time data was last received from the client.
+     *
+     * @return
+     */
+    public long getLastSeen() {
+        return this.lastSeen;
+    }
+
+    /**
+     * Register the channel with the loop's selector and start watching it for ping timeouts.
+     * Must be called on the loop thread.
+     *
+     * @throws ClosedChannelException
+     */
+    void attach() throws ClosedChannelException {
+        this.key = this.channel.register(this.loop.getSelector(), SelectionKey.OP_READ, this);
+        this.pingTimeout = PingPongThread.track(this);
+    }
+
+    /**
+     * Read everything currently available from the channel and process any complete lines.
+     * Called on the loop thread.
+     *
+     * @param buffer scratch buffer shared by every connection on the loop
+     */
+    void handleRead(ByteBuffer buffer) {
+        try {
+            while (true) {
+                buffer.clear();
+                int read = this.channel.read(buffer);
+                if (read == -1) {
+                    this.getParent().quit("Connection closed");
+                    return;
+                }
+                if (read == 0) {
+                    return;
+                }
+                this.lastSeen = System.currentTimeMillis();
+                buffer.flip();
+                if (!this.framer.feed(buffer, this.loop.getDecoder(), this.lines)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            CrimsonLog.severe("Exception while reading from client!");
+            CrimsonLog.severe(e);
+            this.getParent().quit("Server error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the parsed view of the line currently being handled. Only valid while a command
+     * handler is running, as it is reused for the next line.
+     *
+     * @return
+     */
+    public IRCMessage getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Handle the line read from the channel.
+     *
+     * @param line
+     */
+    public void processLine(String line) {
+        if (CrimsonLog.isLoggable(LogLevel.DEBUG)) {
+            CrimsonLog.debug(line + " (from " + this.getParent().getID() + ")");
+        }
+        if (!this.message.parse(line)) {
+            return; //Empty lines are silently ignored.
+        }
+        ICommand cmd = CommandRegistry.getCommand(line, this.message.getCommandStart(), this.message.getCommandEnd());
+        if (cmd == null) {
+            String name = this.message.getCommand().toUpperCase();
+            CrimsonLog.warning(getParent().getID() + " is sending invalid command " + line);
+            this.getParent().sendRaw(Amelia.config.serverHost, "421 " + getParent().getID() + " " + name + " :Unknown command");
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            cmd.exec(this.getParent(), this.message.getLegacyArgs(), this.message.getLegacyRaw());
+        } catch (Exception e) {
+            CrimsonLog.warning(e);
+        } finally {
+            profiler.record(activities.get(cmd.getClass()), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Queue data to be written to the client. Safe to call from any thread; the actual write
+     * happens on the loop thread. If the client is not keeping up and its send queue is full,
+     * the configured sendQueuePolicy decides what happens.
+     *
+     * @param data
+     */
+    public void send(byte[] data) {
+        this.send(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Queue a buffer to be written to the client. The buffer must not be touched by the caller
+     * afterwards; use {@link Frame#buffer()} to share encoded bytes between connections.
+     *
+     * @param buffer
+     */
+    public void send(ByteBuffer buffer) {
+        if (this.closed || this.sendQExceeded.get()) {
+            return;
+        }
+        if (!this.outbound.offer(buffer)) {
+            if (Amelia.config.sendQueuePolicy != EnumSendQPolicy.dropOldest || !this.outbound.offerDroppingOldest(buffer)) {
+                if (this.sendQExceeded.compareAndSet(false, true)) {
+                    this.loop.execute(() -> this.getParent().quit("SendQ exceeded"));
+                }
+                return;
+            }
+        }
+        this.scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (this.flushScheduled.compareAndSet(false, true)) {
+            this.loop.execute(this::flush);
+        }
+    }
+
+    /**
+     * Write as much queued data as the socket will take, coalescing queued lines into
+     * gathering writes. Called on the loop thread.
+     */
+    void flush() {
+        ByteBuffer[] batch = this.loop.getWriteBatch();
+        try {
+            int count;
+            while ((count = this.outbound.peek(batch)) > 0) {
+                this.channel.write(batch, 0, count);
+                int written = 0;
+                while (written < count && !batch[written].hasRemaining()) {
+                    written++;
+                }
+                this.outbound.remove(written);
+                if (written < count) {
+                    //Socket buffer is full, wait until the selector tells us we can write again.
+                    this.setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            this.setInterest(SelectionKey.OP_READ);
+            this.flushScheduled.set(false);
+            if (!this.outbound.isEmpty()) {
+                this.scheduleFlush();
+            }
+        } catch (IOException e) {
+            this.outbound.clear();
+            this.getParent().quit(e.getMessage());
+        } finally {
+            Arrays.fill(batch, null);
+        }
+    }
+
+    private void setInterest(int ops) {
+        if (this.key != null && this.key.isValid() && this.key.interestOps() != ops) {
+            this.key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Close the connection once whatever is already queued has been handed to the socket.
+     */
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.loop.execute(() -> {
+            try {
+                ByteBuffer head;
+                while ((head = this.outbound.poll()) != null) {
+                    this.channel.write(head);
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                //Ignore the error, we are closing anyway.
+            }
+            this.outbound.clear();
+            this.closeNow();
+        });
+    }
+
+    /**
+     * Close the channel immediately, dropping anything still queued.
+     */
+    void closeNow() {
+        this.closed = true;
+        if (this.key != null) {
+            this.key.cancel();
+        }
+        if (this.pingTimeout != null) {
+            PingPongThread.untrack(this.pingTimeout);
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            //Ignore the error.
+        }
+    }
+
+}
@@ -37,15 +37,20 @@
 package nedhyett.Amelia.core.connection;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
+import nedhyett.Amelia.Amelia;
 import nedhyett.Amelia.AmeliaThread;
 import nedhyett.Amelia.Util;
-import nedhyett.Amelia.core.users.User;
 import nedhyett.crimson.logging.CrimsonLog;
 
 /**
+ * Accepts new connections and hands them out to the selector loops.
  *
  * @author Ned
  */
@@ -60,6 +65,10 @@ public class ConnectionThread extends AmeliaThread {
 	}
     }
 
+    private SelectorLoop[] loops;
+
+    private int nextLoop = 0;
+
     /**
      *
      */
@@ -71,46 +80,67 @@ public class ConnectionThread extends AmeliaThread {
 
     @Override
     public void run() {
-	try {
-	    ServerSocket ss = new ServerSocket(6667);
+	try (ServerSocketChannel server = ServerSocketChannel.open(); Selector selector = Selector.open()) {
+	    server.bind(new InetSocketAddress(6667));
+	    server.configureBlocking(false);
+	    server.register(selector, SelectionKey.OP_ACCEPT);
+	    startLoops();
 	    while (!this.isInterrupted()) {
-		Socket s = ss.accept();
-		CrimsonLog.info("Connection from " + s.getInetAddress().getHostAddress());
-		boolean ignore = false;
-		for (String ia : disallowTemp.keySet()) {
-		    if (ia.equalsIgnoreCase(s.getInetAddress().getHostAddress())) {
-			if (disallowTemp.get(ia) > Util.getMicroTime()) {
-			    s.close();
-			    ignore = true;
-			    break;
-			} else {
-			    disallowTemp.remove(ia);
-			    CrimsonLog.debug("Removing " + ia + " timeout expired.");
-			    break;
-			}
+		selector.select();
+		selector.selectedKeys().clear();
+		SocketChannel s;
+		while ((s = server.accept()) != null) {
+		    String address = s.socket().getInetAddress().getHostAddress();
+		    CrimsonLog.info("Connection from " + address);
+		    if (isDisallowed(address)) {
+			s.close();
+			continue;
 		    }
+		    register(s);
 		}
-		if (ignore) {
-		    continue;
-		}
-		register(s);
 	    }
+	} catch (BindException e) {
+	    CrimsonLog.fatal("Error: It seems that something is already using port 6667...");
 	} catch (IOException e) {
-	    if (e.getMessage().contains("Address already in use")) {
-		CrimsonLog.fatal("Error: It seems that something is already using port 6667...");
-	    } else {
-		CrimsonLog.fatal(e);
+	    CrimsonLog.fatal(e);
+	}
+    }
+
+    private void startLoops() throws IOException {
+	int count = Math.max(1, Amelia.config.ioThreads);
+	CrimsonLog.info("Starting " + count + " selector loop(s)...");
+	this.loops = new SelectorLoop[count];
+	for (int i = 0; i < count; i++) {
+	    this.loops[i] = new SelectorLoop(i);
+	    this.loops[i].start();
+	}
+    }
+
+    private boolean isDisallowed(String address) {
+	synchronized (disallowTemp) {
+	    for (String ia : disallowTemp.keySet()) {
+		if (ia.equalsIgnoreCase(address)) {
+		    if (disallowTemp.get(ia) > Util.getMicroTime()) {
+			return true;
+		    }
+		    disallowTemp.remove(ia);
+		    CrimsonLog.debug("Removing " + ia + " timeout expired.");
+		    return false;
+		}
 	    }
 	}
+	return false;
     }
 
     /**
+     * Hand the channel to the next selector loop.
      *
-     * @param socket
+     * @param channel
      */
-    public void register(Socket socket) {
-	User u = new User(socket);
-	u.inThread.start();
+    public void register(SocketChannel channel) {
+	SelectorLoop loop = this.loops[this.nextLoop];
+	this.nextLoop = (this.nextLoop + 1) % this.loops.length;
+	loop.register(channel);
     }
 
 }
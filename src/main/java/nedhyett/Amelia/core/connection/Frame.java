@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ * All rights reserved.
+ *
+ * By using this program/package/library you agree to be completely and unconditionally
+ * bound by the agreement displayed below. Any deviation from this agreement will not
+ * be tolerated.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. No part of this text may be modified
+ *    by anyone other than the original copyright holder.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this
+ *    list of conditions and the following disclaimer in the documentation and/or other
+ *    materials provided with the distribution.
+ * 3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ * 4. The redistribution must contain reference to the original author and provide a
+ *    link (or other means) to aquire the original source code from the original copyright holder.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.core.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A protocol line that has already been encoded to bytes. Build one when the same line goes to
+ * many users (channel messages, feed broadcasts) so it is only encoded once; every recipient
+ * gets a read-only view of the same bytes.
+ *
+ * @author Ned
+ */
+public final class Frame {
+
+    /**
+     * The origin of the line, or null if it has none.
+     */
+    public final String origin;
+
+    /**
+     * The line itself (excluding origin and line ending).
+     */
+    public final String line;
+
+    private final ByteBuffer bytes;
+
+    /**
+     * Encode a new frame.
+     *
+     * @param origin
+     * @param line
+     */
+    public Frame(String origin, String line) {
+        this.origin = origin;
+        this.line = line;
+        String raw = (origin == null) ? line + "\r\n" : ":" + origin + " " + line + "\r\n";
+        this.bytes = ByteBuffer.wrap(raw.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Get a fresh view of the encoded bytes. The view has its own position, so it can be
+     * written out independently of every other recipient's view.
+     *
+     * @return
+     */
+    public ByteBuffer buffer() {
+        return this.bytes.duplicate();
+    }
+
+}
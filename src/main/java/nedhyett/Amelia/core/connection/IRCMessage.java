@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ * All rights reserved.
+ *
+ * By using this program/package/library you agree to be completely and unconditionally
+ * bound by the agreement displayed below. Any deviation from this agreement will not
+ * be tolerated.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. No part of this text may be modified
+ *    by anyone other than the original copyright holder.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this
+ *    list of conditions and the following disclaimer in the documentation and/or other
+ *    materials provided with the distribution.
+ * 3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ * 4. The redistribution must contain reference to the original author and provide a
+ *    link (or other means) to aquire the original source code from the original copyright holder.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.core.connection;
+
+/**
+ * A reusable view over a single IRC line, split in one pass into its IRCv3 tags, prefix,
+ * command and parameters:
+ * <pre>
+ * [@tags SPACE] [:prefix SPACE] command [params] [SPACE :trailing]
+ * </pre>
+ * Parsing only records offsets into the line; nothing is copied until a part is asked for.
+ * Each connection owns one instance and re-parses it for every line, so a view is only valid
+ * until the next line is read.
+ *
+ * @author Ned
+ */
+public final class IRCMessage {
+
+    /**
+     * The most parameters a message can carry. Anything past the 14th middle parameter is
+     * taken as the trailing parameter, colon or not.
+     */
+    public static final int MAX_PARAMS = 15;
+
+    private String line;
+
+    private int tagsStart, tagsEnd;
+
+    private int prefixStart, prefixEnd;
+
+    private int commandStart, commandEnd;
+
+    private final int[] paramStart = new int[MAX_PARAMS];
+
+    private final int[] paramEnd = new int[MAX_PARAMS];
+
+    private int paramCount;
+
+    private boolean trailing;
+
+    /**
+     * Parse a line (without its line ending) into this view.
+     *
+     * @param line
+     *
+     * @return false if the line has no command (empty, or only tags and prefix)
+     */
+    public boolean parse(String line) {
+        this.line = line;
+        this.tagsStart = this.tagsEnd = -1;
+        this.prefixStart = this.prefixEnd = -1;
+        this.commandStart = this.commandEnd = -1;
+        this.paramCount = 0;
+        this.trailing = false;
+        int length = line.length();
+        int i = skipSpaces(line, 0);
+        if (i < length && line.charAt(i) == '@') {
+            this.tagsStart = i + 1;
+            i = this.tagsEnd = nextSpace(line, i);
+            i = skipSpaces(line, i);
+        }
+        if (i < length && line.charAt(i) == ':') {
+            this.prefixStart = i + 1;
+            i = this.prefixEnd = nextSpace(line, i);
+            i = skipSpaces(line, i);
+        }
+        if (i >= length) {
+            return false;
+        }
+        this.commandStart = i;
+        i = this.commandEnd = nextSpace(line, i);
+        while (true) {
+            i = skipSpaces(line, i);
+            if (i >= length) {
+                break;
+            }
+            if (line.charAt(i) == ':' || this.paramCount == MAX_PARAMS - 1) {
+                if (line.charAt(i) == ':') {
+                    i++;
+                }
+                this.paramStart[this.paramCount] = i;
+                this.paramEnd[this.paramCount++] = length;
+                this.trailing = true;
+                break;
+            }
+            this.paramStart[this.paramCount] = i;
+            i = this.paramEnd[this.paramCount++] = nextSpace(line, i);
+        }
+        return true;
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && s.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int nextSpace(String s, int i) {
+        int space = s.indexOf(' ', i);
+        return space == -1 ? s.length() : space;
+    }
+
+    /**
+     * Get the line this view was parsed from.
+     *
+     * @return
+     */
+    public String getLine() {
+        return this.line;
+    }
+
+    /**
+     * Get the raw IRCv3 tag string (without the leading @), or null if there are no tags.
+     *
+     * @return
+     */
+    public String getTags() {
+        return this.tagsStart < 0 ? null : this.line.substring(this.tagsStart, this.tagsEnd);
+    }
+
+    /**
+     * Get the prefix (without the leading colon), or null if there is none.
+     *
+     * @return
+     */
+    public String getPrefix() {
+        return this.prefixStart < 0 ? null : this.line.substring(this.prefixStart, this.prefixEnd);
+    }
+
+    /**
+     * Get the command exactly as it was sent.
+     *
+     * @return
+     */
+    public String getCommand() {
+        return this.line.substring(this.commandStart, this.commandEnd);
+    }
+
+    /**
+     * Get the offset of the command in the line.
+     *
+     * @return
+     */
+    public int getCommandStart() {
+        return this.commandStart;
+    }
+
+    /**
+     * Get the offset just past the command in the line.
+     *
+     * @return
+     */
+    public int getCommandEnd() {
+        return this.commandEnd;
+    }
+
+    /**
+     * Get the number of parameters, including the trailing one.
+     *
+     * @return
+     */
+    public int getParamCount() {
+        return this.paramCount;
+    }
+
+    /**
+     * Get a parameter. The trailing parameter (if any) is the last one, without its colon.
+     *
+     * @param index
+     *
+     * @return
+     */
+    public String getParam(int index) {
+        if (index < 0 || index >= this.paramCount) {
+            throw new IndexOutOfBoundsException("Parameter " + index + " of " + this.paramCount);
+        }
+        return this.line.substring(this.paramStart[index], this.paramEnd[index]);
+    }
+
+    /**
+     * Was the last parameter sent as a trailing parameter?
+     *
+     * @return
+     */
+    public boolean hasTrailing() {
+        return this.trailing;
+    }
+
+    /**
+     * Get the line from the command onwards, in the form ICommand handlers expect as rawmsg.
+     * A line with no parameters gets a space appended, as handlers look for text after the
+     * first space.
+     *
+     * @return
+     */
+    public String getLegacyRaw() {
+        String raw = this.commandStart == 0 ? this.line : this.line.substring(this.commandStart);
+        return this.commandEnd == this.line.length() ? raw + " " : raw;
+    }
+
+    /**
+     * Get the arguments in the form ICommand handlers expect: everything after the command
+     * split on single spaces, colons included, with trailing empty strings dropped.
+     *
+     * @return
+     */
+    public String[] getLegacyArgs() {
+        int end = this.line.length();
+        while (end > this.commandEnd && this.line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end <= this.commandEnd) {
+            return new String[0];
+        }
+        int count = 1;
+        for (int i = this.commandEnd + 1; i < end; i++) {
+            if (this.line.charAt(i) == ' ') {
+                count++;
+            }
+        }
+        String[] args = new String[count];
+        int start = this.commandEnd + 1;
+        for (int n = 0; n < count; n++) {
+            int space = n == count - 1 ? end : this.line.indexOf(' ', start);
+            args[n] = this.line.substring(start, space);
+            start = space + 1;
+        }
+        return args;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ * All rights reserved.
+ *
+ * By using this program/package/library you agree to be completely and unconditionally
+ * bound by the agreement displayed below. Any deviation from this agreement will not
+ * be tolerated.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. No part of this text may be modified
+ *    by anyone other than the original copyright holder.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this
+ *    list of conditions and the following disclaimer in the documentation and/or other
+ *    materials provided with the distribution.
+ * 3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ * 4. The redistribution must contain reference to the original author and provide a
+ *    link (or other means) to aquire the original source code from the original copyright holder.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.core.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns the bytes of a line into a String. Pure ASCII lines (by far the most common) are copied
+ * straight across; anything else is decoded as UTF-8, falling back to Latin-1 for clients that
+ * send some other 8-bit encoding. Holds scratch buffers, so each SelectorLoop owns one and it
+ * must only be used on that loop's thread.
+ *
+ * @author Ned
+ */
+public final class LineDecoder {
+
+    private final byte[] bytes = new byte[LineFramer.MAX_TAGS + LineFramer.MAX_LINE];
+
+    private final CharBuffer chars = CharBuffer.allocate(LineFramer.MAX_TAGS + LineFramer.MAX_LINE);
+
+    private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    /**
+     * Decode length bytes starting at the absolute index start of the buffer. The buffer's
+     * position is not changed.
+     *
+     * @param in
+     * @param start
+     * @param length
+     *
+     * @return
+     */
+    public String decode(ByteBuffer in, int start, int length) {
+        ByteBuffer view = in.duplicate();
+        view.limit(start + length).position(start);
+        view.get(this.bytes, 0, length);
+        return this.decode(this.bytes, 0, length);
+    }
+
+    /**
+     * Decode a range of a byte array.
+     *
+     * @param b
+     * @param offset
+     * @param length
+     *
+     * @return
+     */
+    public String decode(byte[] b, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end && b[i] >= 0) {
+            i++;
+        }
+        if (i == end) {
+            return new String(b, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        this.utf8.reset();
+        this.chars.clear();
+        CoderResult result = this.utf8.decode(ByteBuffer.wrap(b, offset, length), this.chars, true);
+        if (!result.isUnderflow() || !this.utf8.flush(this.chars).isUnderflow()) {
+            return new String(b, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        this.chars.flip();
+        return this.chars.toString();
+    }
+
+}
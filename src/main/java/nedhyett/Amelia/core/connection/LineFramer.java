@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ * All rights reserved.
+ *
+ * By using this program/package/library you agree to be completely and unconditionally
+ * bound by the agreement displayed below. Any deviation from this agreement will not
+ * be tolerated.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. No part of this text may be modified
+ *    by anyone other than the original copyright holder.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this
+ *    list of conditions and the following disclaimer in the documentation and/or other
+ *    materials provided with the distribution.
+ * 3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ * 4. The redistribution must contain reference to the original author and provide a
+ *    link (or other means) to aquire the original source code from the original copyright holder.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.core.connection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the bytes read from a client into lines, enforcing the protocol's line length limits:
+ * 512 bytes including the CRLF, plus up to 8191 bytes of IRCv3 tags on lines that start with
+ * '@'. Lines are found by scanning the loop's read buffer in place; only a line that is split
+ * across reads is copied into this connection's carry-over array, which never grows past the
+ * limit. A line that is too long is dropped up to its line ending.
+ *
+ * @author Ned
+ */
+public final class LineFramer {
+
+    /**
+     * The longest line allowed, including the CRLF.
+     */
+    public static final int MAX_LINE = 512;
+
+    /**
+     * The most bytes that IRCv3 tags may add to a line (including the '@' and the space).
+     */
+    public static final int MAX_TAGS = 8191;
+
+    /**
+     * Receives the lines found by a framer.
+     */
+    public interface Listener {
+
+        /**
+         * Handle a complete line (without its line ending).
+         *
+         * @param line
+         *
+         * @return false to stop framing (e.g. the connection was closed)
+         */
+        boolean line(String line);
+
+        /**
+         * Called once for each line that was dropped for being too long.
+         */
+        void overlong();
+
+    }
+
+    /**
+     * Bytes of a line that has not been completed by the reads so far.
+     */
+    private byte[] partial = new byte[0];
+
+    private int partialLength = 0;
+
+    /**
+     * Set while skipping the rest of a line that was too long.
+     */
+    private boolean discarding = false;
+
+    /**
+     * Frame everything remaining in the buffer.
+     *
+     * @param in       freshly read bytes, flipped for reading
+     * @param decoder  the loop's decoder
+     * @param listener
+     *
+     * @return false if the listener asked to stop
+     */
+    public boolean feed(ByteBuffer in, LineDecoder decoder, Listener listener) {
+        int limit = in.limit();
+        int start = in.position();
+        while (start < limit) {
+            int end = start;
+            while (end < limit && in.get(end) != '\n') {
+                end++;
+            }
+            if (end == limit) {
+                this.carry(in, start, limit, listener);
+                in.position(limit);
+                return true;
+            }
+            in.position(end + 1);
+            String line;
+            if (this.discarding) {
+                this.discarding = false;
+                line = null;
+            } else if (this.partialLength == 0) {
+                int length = stripCR(in, start, end);
+                if (length > maxLength(in.get(start))) {
+                    listener.overlong();
+                    line = null;
+                } else {
+                    line = decoder.decode(in, start, length);
+                }
+            } else {
+                this.carry(in, start, end, listener);
+                line = this.discarding ? null : this.takePartial(decoder, listener);
+                this.discarding = false;
+            }
+            start = end + 1;
+            if (line != null && !listener.line(line)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int maxLength(byte first) {
+        return (first == '@' ? MAX_TAGS + MAX_LINE : MAX_LINE) - 2;
+    }
+
+    private static int stripCR(ByteBuffer in, int start, int end) {
+        return (end > start && in.get(end - 1) == '\r') ? end - start - 1 : end - start;
+    }
+
+    /**
+     * Copy an unfinished piece of a line into the carry-over array.
+     */
+    private void carry(ByteBuffer in, int start, int end, Listener listener) {
+        int count = end - start;
+        if (this.discarding || count == 0) {
+            return;
+        }
+        byte first = this.partialLength > 0 ? this.partial[0] : in.get(start);
+        int max = maxLength(first) + 1; //Leave room for the CR.
+        if (this.partialLength + count > max) {
+            this.partialLength = 0;
+            this.discarding = true;
+            listener.overlong();
+            return;
+        }
+        if (this.partialLength + count > this.partial.length) {
+            byte[] grown = new byte[Math.min(max, Math.max(this.partialLength + count, this.partial.length * 2))];
+            System.arraycopy(this.partial, 0, grown, 0, this.partialLength);
+            this.partial = grown;
+        }
+        ByteBuffer view = in.duplicate();
+        view.limit(end).position(start);
+        view.get(this.partial, this.partialLength, count);
+        this.partialLength += count;
+    }
+
+    private String takePartial(LineDecoder decoder, Listener listener) {
+        int length = this.partialLength;
+        this.partialLength = 0;
+        if (length > 0 && this.partial[length - 1] == '\r') {
+            length--;
+        }
+        if (length > maxLength(this.partial[0])) {
+            listener.overlong();
+            return null;
+        }
+        return decoder.decode(this.partial, 0, length);
+    }
+
+}
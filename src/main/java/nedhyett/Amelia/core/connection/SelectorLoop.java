@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ * All rights reserved.
+ *
+ * By using this program/package/library you agree to be completely and unconditionally
+ * bound by the agreement displayed below. Any deviation from this agreement will not
+ * be tolerated.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. No part of this text may be modified
+ *    by anyone other than the original copyright holder.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this
+ *    list of conditions and the following disclaimer in the documentation and/or other
+ *    materials provided with the distribution.
+ * 3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ * 4. The redistribution must contain reference to the original author and provide a
+ *    link (or other means) to aquire the original source code from the original copyright holder.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.core.connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import nedhyett.Amelia.AmeliaThread;
+import nedhyett.Amelia.core.users.User;
+import nedhyett.crimson.logging.CrimsonLog;
+
+/**
+ * An event loop that services the reads and writes of many client connections on a single
+ * thread.
+ *
+ * @author Ned
+ */
+public class SelectorLoop extends AmeliaThread {
+
+    private final Selector selector;
+
+    /**
+     * Work handed to this loop by other threads (registrations, flushes, closes).
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Scratch read buffer shared by every connection on this loop.
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+
+    /**
+     * Scratch array used to gather queued lines into a single write.
+     */
+    private final ByteBuffer[] writeBatch = new ByteBuffer[64];
+
+    /**
+     * Decoder shared by every connection on this loop.
+     */
+    private final LineDecoder decoder = new LineDecoder();
+
+    /**
+     * Create a new selector loop.
+     *
+     * @param id the index of this loop (used in the thread name)
+     *
+     * @throws IOException if the selector cannot be opened
+     */
+    public SelectorLoop(int id) throws IOException {
+        super();
+        this.setDaemon(true);
+        this.setName("Amelia:SelectorLoop-" + id);
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Get the selector used by this loop.
+     *
+     * @return
+     */
+    Selector getSelector() {
+        return this.selector;
+    }
+
+    /**
+     * Get the scratch array used for gathering writes. Only valid on the loop thread.
+     *
+     * @return
+     */
+    ByteBuffer[] getWriteBatch() {
+        return this.writeBatch;
+    }
+
+    /**
+     * Get the line decoder for this loop. Only valid on the loop thread.
+     *
+     * @return
+     */
+    LineDecoder getDecoder() {
+        return this.decoder;
+    }
+
+    /**
+     * Hand a freshly accepted channel to this loop.
+     *
+     * @param channel
+     */
+    public void register(SocketChannel channel) {
+        this.execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                User u = new User(channel, this);
+                u.connection.attach();
+            } catch (IOException e) {
+                CrimsonLog.warning("Could not register connection");
+                CrimsonLog.warning(e);
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    //Ignore the error.
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a task on this loop's thread.
+     *
+     * @param task
+     */
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        if (Thread.currentThread() != this) {
+            this.selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!this.isInterrupted()) {
+            try {
+                this.selector.select();
+                this.runTasks();
+                Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    ClientConnection connection = (ClientConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.handleRead(this.readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (CancelledKeyException e) {
+                        //Connection was closed while we were handling it.
+                    }
+                }
+                this.runTasks();
+            } catch (IOException e) {
+                CrimsonLog.severe("Exception in selector loop!");
+                CrimsonLog.severe(e);
+                break;
+            }
+        }
+        this.selector.keys().forEach((key) -> ((ClientConnection) key.attachment()).closeNow());
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            //Ignore the error.
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                CrimsonLog.warning(e);
+            }
+        }
+    }
+
+}
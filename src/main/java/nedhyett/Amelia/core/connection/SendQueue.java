@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ * All rights reserved.
+ *
+ * By using this program/package/library you agree to be completely and unconditionally
+ * bound by the agreement displayed below. Any deviation from this agreement will not
+ * be tolerated.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. No part of this text may be modified
+ *    by anyone other than the original copyright holder.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this
+ *    list of conditions and the following disclaimer in the documentation and/or other
+ *    materials provided with the distribution.
+ * 3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ * 4. The redistribution must contain reference to the original author and provide a
+ *    link (or other means) to aquire the original source code from the original copyright holder.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.core.connection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded ring of outbound lines for one connection. Producers on any thread add to the
+ * tail, the connection's selector loop drains from the head in batches so several lines can go
+ * out in a single gathering write.
+ *
+ * @author Ned
+ */
+public class SendQueue {
+
+    private final ByteBuffer[] ring;
+
+    private int head = 0;
+
+    private int size = 0;
+
+    /**
+     * The number of lines at the head handed out by the last {@link #peek(ByteBuffer[])} and not
+     * yet removed. The writer may be writing them outside the lock, so they must not be touched.
+     */
+    private int inFlight = 0;
+
+    /**
+     * Create a new send queue.
+     *
+     * @param capacity the maximum number of lines that may be waiting at once
+     */
+    public SendQueue(int capacity) {
+        this.ring = new ByteBuffer[Math.max(1, capacity)];
+    }
+
+    /**
+     * Add a line to the tail of the queue.
+     *
+     * @param data
+     *
+     * @return false if the queue is full
+     */
+    public synchronized boolean offer(ByteBuffer data) {
+        if (this.size == this.ring.length) {
+            return false;
+        }
+        this.ring[(this.head + this.size) % this.ring.length] = data;
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Remove the oldest line and add the new one, even if the queue is full. Lines that are
+     * being written or are partially written are never dropped, as that would corrupt the
+     * stream; the oldest line after them goes instead.
+     *
+     * @param data
+     *
+     * @return false if nothing could be dropped to make room
+     */
+    public synchronized boolean offerDroppingOldest(ByteBuffer data) {
+        if (this.size == this.ring.length) {
+            int keep = this.inFlight;
+            if (keep == 0 && this.ring[this.head].position() != 0) {
+                keep = 1;
+            }
+            if (keep >= this.size) {
+                return false;
+            }
+            int victim = (this.head + keep) % this.ring.length;
+            //Shift everything between the head and the victim up by one to close the gap.
+            int i = victim;
+            while (i != this.head) {
+                int prev = (i - 1 + this.ring.length) % this.ring.length;
+                this.ring[i] = this.ring[prev];
+                i = prev;
+            }
+            this.ring[this.head] = null;
+            this.head = (this.head + 1) % this.ring.length;
+            this.size--;
+        }
+        return this.offer(data);
+    }
+
+    /**
+     * Copy references to the lines at the head of the queue into the provided array without
+     * removing them. They count as being written until the next {@link #remove(int)}.
+     *
+     * @param batch
+     *
+     * @return the number of lines copied
+     */
+    public synchronized int peek(ByteBuffer[] batch) {
+        int count = Math.min(batch.length, this.size);
+        for (int i = 0; i < count; i++) {
+            batch[i] = this.ring[(this.head + i) % this.ring.length];
+        }
+        this.inFlight = count;
+        return count;
+    }
+
+    /**
+     * Remove lines from the head of the queue once they have been fully written. This ends the
+     * batch handed out by the last peek.
+     *
+     * @param count
+     */
+    public synchronized void remove(int count) {
+        this.inFlight = 0;
+        for (int i = 0; i < count && this.size > 0; i++) {
+            this.ring[this.head] = null;
+            this.head = (this.head + 1) % this.ring.length;
+            this.size--;
+        }
+    }
+
+    /**
+     * Take the next line off the head of the queue.
+     *
+     * @return the line, or null if the queue is empty
+     */
+    public synchronized ByteBuffer poll() {
+        if (this.size == 0) {
+            return null;
+        }
+        ByteBuffer data = this.ring[this.head];
+        this.remove(1);
+        return data;
+    }
+
+    /**
+     * Throw away everything in the queue.
+     */
+    public synchronized void clear() {
+        this.remove(this.size);
+    }
+
+    /**
+     * Is the queue empty?
+     *
+     * @return
+     */
+    public synchronized boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Get the number of lines waiting to be written.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+}
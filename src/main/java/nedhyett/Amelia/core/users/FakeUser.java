@@ -30,6 +30,7 @@
  */
 package nedhyett.Amelia.core.users;
 
+import nedhyett.Amelia.core.connection.Frame;
 import nedhyett.Amelia.managers.UserManager;
 
 /**
@@ -73,6 +74,11 @@ public abstract class FakeUser extends User {
 
     }
 
+    @Override
+    public void sendFrame(Frame frame) {
+        this.sendRaw(frame.origin, frame.line);
+    }
+
     /**
      * Called when someone tries to direct a command towards this user.
      *
@@ -36,15 +36,21 @@
  */
 package nedhyett.Amelia.core.users;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import nedhyett.Amelia.Amelia;
+import nedhyett.Amelia.Channel;
 import nedhyett.Amelia.Util;
-import nedhyett.Amelia.core.connection.InputThread;
+import nedhyett.Amelia.core.connection.ClientConnection;
+import nedhyett.Amelia.core.connection.Frame;
+import nedhyett.Amelia.core.connection.SelectorLoop;
 import nedhyett.Amelia.managers.ChannelManager;
 import nedhyett.Amelia.managers.UserManager;
 import nedhyett.crimson.logging.CrimsonLog;
+import nedhyett.crimson.logging.LogLevel;
 
 /**
  * Represents a user connected via a socket.
@@ -54,9 +60,9 @@ import nedhyett.crimson.logging.CrimsonLog;
 public class User {
 
     /**
-     * The input thread for this user.
+     * The connection for this user.
      */
-    public final InputThread inThread;
+    public final ClientConnection connection;
 
     /**
      * The socket for this user.
@@ -103,6 +109,11 @@ public class User {
      */
     public long lastAction = 0L;
 
+    /**
+     * The channels this user is currently in. Maintained by Channel on join and leave.
+     */
+    public final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+
     /**
      * When the connection was opened.
      */
@@ -112,25 +123,20 @@ public class User {
      * Create a blank user (used for FakeUser)
      */
     protected User() {
-	inThread = null;
+	connection = null;
 	socket = null;
 	connectionOpened = Util.getMicroTime();
     }
 
     /**
-     * Create a new user based around a socket.
+     * Create a new user based around a non-blocking channel serviced by the provided loop.
      *
-     * @param socket
-     */
-    public User(Socket socket) {
-	InputStream inStream = null;
-	try {
-	    inStream = socket.getInputStream();
-	} catch (IOException e) {
-	    CrimsonLog.severe("Error getting input stream for user");
-	}
-	this.inThread = new InputThread(this, inStream);
-	this.socket = socket;
+     * @param channel
+     * @param loop
+     */
+    public User(SocketChannel channel, SelectorLoop loop) {
+	this.connection = new ClientConnection(this, channel, loop);
+	this.socket = channel.socket();
 	connectionOpened = Util.getMicroTime();
     }
 
@@ -159,34 +165,28 @@ public class User {
      * @param str
      */
     public void sendRaw(String origin, String str) {
-	if (this.socket.isClosed()) {
+	if (!this.connection.isOpen()) {
 	    CrimsonLog.warning("Error: cannot send text to user " + this.nick + ". Socket closed.");
 	    return;
 	}
-	if (this.socket.isOutputShutdown()) {
-	    CrimsonLog.warning("Error: cannot send text to user " + this.nick + ". Output stream closed.");
-	    return;
+	String line = (origin == null) ? str : ":" + origin + " " + str;
+	if (CrimsonLog.isLoggable(LogLevel.DEBUG)) {
+	    CrimsonLog.debug("Sending " + line + " (to " + this.getID() + ")");
 	}
-	try {
-	    if (origin == null) {
-			CrimsonLog.debug("Sending " + str + " (to " + this.getID() + ")");
-			this.socket.getOutputStream().write((str + "\r\n").getBytes());
-			//this.bytesSent += (str + "\r\n").getBytes().length;
-			return;
-	    }
-	    CrimsonLog.debug("Sending " + ":" + origin + " " + str + " (to " + this.getID() + ")");
-	    this.socket.getOutputStream().write((":" + origin + " " + str + "\r\n").getBytes());
-	    //this.bytesSent += (":" + origin + " " + str + "\r\n").getBytes().length;
-	} catch (IOException ex) {
-	    this.inThread.interrupt();
-	    ChannelManager.getAllChannelsWithUser(this).stream().map((c) -> {
-		c.sendRawExcept(this.getID(), "QUIT :" + ex.getMessage(), this);
-		return c;
-	    }).forEach((c) -> {
-		c.leaveNoAnnounce(this);
-	    });
-	    UserManager.dropUser(this.nick);
+	this.connection.send((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send a pre-encoded line to this user. Used for broadcasts, where the same frame goes to
+     * many users and should only be encoded once.
+     *
+     * @param frame
+     */
+    public void sendFrame(Frame frame) {
+	if (!this.connection.isOpen()) {
+	    return;
 	}
+	this.connection.send(frame.buffer());
     }
 
     /**
@@ -231,8 +231,8 @@ public class User {
 	}).forEach((c) -> {
 	    c.leaveNoAnnounce(this);
 	});
-	this.inThread.interrupt();
-	UserManager.dropUser(this.nick);
+	this.connection.close();
+	UserManager.dropUser(this);
     }
 
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ *  All rights reserved.
+ * 
+ *  By using this program/package/library you agree to be completely and unconditionally
+ *  bound by the agreement displayed below. Any deviation from this agreement will not
+ *  be tolerated.
+ * 
+ *  Redistribution and use in source and binary forms, with or without modification,
+ *  are permitted provided that the following conditions are met:
+ * 
+ *  1. Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright notice, this
+ *  list of conditions and the following disclaimer in the documentation and/or other
+ *  materials provided with the distribution.
+ *  3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ *  4. The redistribution must contain reference to the original author, and this page.
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.enums;
+
+/**
+ * What to do when a client stops reading and its send queue fills up.
+ *
+ * @author Ned
+ */
+public enum EnumSendQPolicy {
+
+    /**
+     * Drop the client with "SendQ exceeded", like most ircds do.
+     */
+    disconnect("disconnect"),
+
+    /**
+     * Throw away the oldest queued line to make room for the new one. The client stays
+     * connected but misses some output.
+     */
+    dropOldest("dropOldest");
+
+    public final String text;
+
+    EnumSendQPolicy(String text) {
+	this.text = text;
+    }
+
+    /**
+     * Look up a policy by its configuration name.
+     *
+     * @param text
+     * @param def  the policy to use if the name is not recognised
+     *
+     * @return
+     */
+    public static EnumSendQPolicy fromText(String text, EnumSendQPolicy def) {
+	for (EnumSendQPolicy policy : values()) {
+	    if (policy.text.equalsIgnoreCase(text)) {
+		return policy;
+	    }
+	}
+	return def;
+    }
+
+}
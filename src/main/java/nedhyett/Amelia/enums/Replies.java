@@ -116,6 +116,13 @@ public enum Replies {
      */
     RPL_STATSUPTIME(242, ":Server up %s days %s:%s:%s", 4),
     
+    /**
+     * Free-form line of a STATS report.
+     * <br><br>
+     * Params: [text]
+     */
+    RPL_STATSDEBUG(249, ":%s", 1),
+    
     /**
      * Reply to LUSERS command.
      * <br><br>
@@ -632,6 +639,13 @@ public enum Replies {
      */
     ERR_BADMASK(415),
 
+    /**
+     * Sent when a client sends a line longer than the protocol allows. The line is dropped.
+     * <br><br>
+     * Params: none
+     */
+    ERR_INPUTTOOLONG(417, ":Input line was too long", 0),
+
     /**
      *
      */
@@ -31,8 +31,9 @@
 package nedhyett.Amelia.managers;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import nedhyett.Amelia.Channel;
+import nedhyett.Amelia.Util;
 import nedhyett.Amelia.core.users.User;
 import nedhyett.crimson.logging.CrimsonLog;
 
@@ -51,9 +52,9 @@ public class ChannelManager {
      * 
      */
     /**
-     * List of active channels.
+     * Active channels, keyed by casemapped name (see {@link Util#casemap(String)}).
      */
-    private static final HashMap<String, Channel> channels = new HashMap<>();
+    private static final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
 
     /**
      * List of channel prefixes. This should not be changed unless a new RFC
@@ -72,12 +73,32 @@ public class ChannelManager {
 	if (!validateChannelName(name)) {
 	    return null;
 	}
-	channels.put(name, new Channel(name));
+	Channel c = newChannel(name);
+	channels.put(Util.casemap(name), c);
+	return c;
+    }
+
+    /**
+     * Get the channel with the given name, creating it if nobody is using it yet.
+     *
+     * @param name The channel identifier (including prefix)
+     *
+     * @return The channel instance, or null if the name is invalid
+     */
+    public static Channel getOrCreateChannel(String name) {
+	if (!validateChannelName(name)) {
+	    return null;
+	}
+	return channels.computeIfAbsent(Util.casemap(name), (k) -> newChannel(name));
+    }
+
+    private static Channel newChannel(String name) {
+	Channel c = new Channel(name);
 	if (name.startsWith("+")) {
-	    channels.get(name).noModes = true;
-	    channels.get(name).topicProtection = true;
+	    c.noModes = true;
+	    c.topicProtection = true;
 	}
-	return channels.get(name);
+	return c;
     }
 
     /**
@@ -86,13 +107,21 @@ public class ChannelManager {
      * @param name
      */
     public static void closeChannel(String name) {
-	if (channelExists(name)) {
-	    channels.remove(name);
-	} else {
+	if (channels.remove(Util.casemap(name)) == null) {
 	    CrimsonLog.warning("Tried to close non-existant channel " + name);
 	}
     }
 
+    /**
+     * Close the given channel, unless it has already been replaced by a newer one with the
+     * same name.
+     *
+     * @param c
+     */
+    public static void closeChannel(Channel c) {
+	channels.remove(Util.casemap(c.name), c);
+    }
+
     /**
      * Get a list of all active channels.
      *
@@ -110,7 +139,7 @@ public class ChannelManager {
      * @return
      */
     public static Channel getChannel(String name) {
-	return channels.get(name);
+	return channels.get(Util.casemap(name));
     }
 
     /**
@@ -121,25 +150,21 @@ public class ChannelManager {
      * @return
      */
     public static boolean channelExists(String name) {
-	return channels.containsKey(name);
+	return channels.containsKey(Util.casemap(name));
     }
 
     /**
-     * Search through all open channels and check the user list for the provided
-     * user (expensive operation)
+     * Get a copy of the list of channels the provided user is in.
      *
      * @param u
      *
      * @return
      */
     public static ArrayList<Channel> getAllChannelsWithUser(User u) {
-	ArrayList<Channel> ret = new ArrayList<>();
-	for (Channel c : channels.values()) {
-	    if (c.isInChannel(u)) {
-		ret.add(c);
-	    }
+	if (u == null) {
+	    return new ArrayList<>();
 	}
-	return ret;
+	return new ArrayList<>(u.channels);
     }
 
     /**
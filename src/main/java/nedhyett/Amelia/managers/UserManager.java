@@ -31,8 +31,9 @@
 package nedhyett.Amelia.managers;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import nedhyett.Amelia.Amelia;
+import nedhyett.Amelia.Util;
 import nedhyett.Amelia.core.users.FakeUser;
 import nedhyett.Amelia.core.users.User;
 import nedhyett.crimson.logging.CrimsonLog;
@@ -52,14 +53,19 @@ public class UserManager {
     };
 
     /**
-     * List of active users.
+     * Active users, keyed by casemapped nick (see {@link Util#casemap(String)}).
      */
-    private static final HashMap<String, User> users = new HashMap<>();
+    private static final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
 
     /**
-     * List of active fake users.
+     * Active fake users, keyed by casemapped nick.
      */
-    private static final HashMap<String, FakeUser> fakeUsers = new HashMap<>();
+    private static final ConcurrentHashMap<String, FakeUser> fakeUsers = new ConcurrentHashMap<>();
+
+    /**
+     * Both real and fake users, keyed by their nick!user@host ID.
+     */
+    private static final ConcurrentHashMap<String, User> ids = new ConcurrentHashMap<>();
 
     /**
      * Get a user instance.
@@ -69,24 +75,12 @@ public class UserManager {
      * @return
      */
     public static User getUser(String nick) {
-	return getUserCaseInsensitive(nick);
-    }
-
-    private static User getUserCaseInsensitive(String nick) {
-	if (fakeUserExists(nick)) {
-	    for (String s : fakeUsers.keySet()) {
-		if (s.equalsIgnoreCase(nick)) {
-		    return fakeUsers.get(s);
-		}
-	    }
-	} else {
-	    for (String s : users.keySet()) {
-		if (s.equalsIgnoreCase(nick)) {
-		    return users.get(s);
-		}
-	    }
+	if (nick == null) {
+	    return null;
 	}
-	return null;
+	String key = Util.casemap(nick);
+	User u = fakeUsers.get(key);
+	return u != null ? u : users.get(key);
     }
 
     /**
@@ -94,13 +88,20 @@ public class UserManager {
      *
      * @param nick
      * @param user
+     *
+     * @return false if the nick is invalid or already taken
      */
-    public static void addUser(String nick, User user) {
+    public static boolean addUser(String nick, User user) {
 	if (!isNickValid(nick)) {
 	    user.quit("Bad nickname (" + nick + ")");
-	    return;
+	    return false;
+	}
+	String key = Util.casemap(nick);
+	if (fakeUsers.containsKey(key) || users.putIfAbsent(key, user) != null) {
+	    return false;
 	}
-	users.put(nick, user);
+	ids.put(user.getID(), user);
+	return true;
     }
 
     /**
@@ -115,7 +116,36 @@ public class UserManager {
 	    return;
 	}
 	CrimsonLog.debug("Registering FakeUser " + nick);
-	fakeUsers.put(nick, user);
+	fakeUsers.put(Util.casemap(nick), user);
+	ids.put(user.getID(), user);
+    }
+
+    /**
+     * Change the nick of a registered user, keeping both indexes in step.
+     *
+     * @param user
+     * @param nick
+     *
+     * @return false if the new nick is already taken
+     */
+    public static boolean renameUser(User user, String nick) {
+	String oldKey = user.nick == null ? null : Util.casemap(user.nick);
+	String newKey = Util.casemap(nick);
+	if (oldKey == null || users.get(oldKey) != user) {
+	    //Not registered yet, nothing to move.
+	    user.nick = nick;
+	    return true;
+	}
+	if (!oldKey.equals(newKey)) {
+	    if (fakeUsers.containsKey(newKey) || users.putIfAbsent(newKey, user) != null) {
+		return false;
+	    }
+	    users.remove(oldKey, user);
+	}
+	ids.remove(user.getID(), user);
+	user.nick = nick;
+	ids.put(user.getID(), user);
+	return true;
     }
 
     /**
@@ -124,10 +154,20 @@ public class UserManager {
      * @param nick
      */
     public static void dropUser(String nick) {
-	for (User u : users.values()) {
-	    if (u.nick.equalsIgnoreCase(nick)) {
-		users.remove(u.nick);
-	    }
+	User u = users.remove(Util.casemap(nick));
+	if (u != null) {
+	    ids.remove(u.getID(), u);
+	}
+    }
+
+    /**
+     * Drop the given user, but only if it is the one registered under its nick.
+     *
+     * @param user
+     */
+    public static void dropUser(User user) {
+	if (user.nick != null && users.remove(Util.casemap(user.nick), user)) {
+	    ids.remove(user.getID(), user);
 	}
     }
 
@@ -139,24 +179,11 @@ public class UserManager {
      * @return
      */
     public static boolean userExists(String nick) {
-	if (fakeUserExists(nick)) {
-	    return true;
-	}
-	for (User u : users.values()) {
-	    if (u.nick.equalsIgnoreCase(nick)) {
-		return true;
-	    }
-	}
-	return false;
+	return getUser(nick) != null;
     }
 
     public static boolean fakeUserExists(String nick) {
-	for (FakeUser u : fakeUsers.values()) {
-	    if (u.nick.equalsIgnoreCase(nick)) {
-		return true;
-	    }
-	}
-	return false;
+	return nick != null && fakeUsers.containsKey(Util.casemap(nick));
     }
 
     /**
@@ -215,23 +242,14 @@ public class UserManager {
     }
 
     /**
+     * Look up a user (real or fake) by its nick!user@host ID.
      *
      * @param id
      *
      * @return
      */
     public static User getFromID(String id) {
-	for (User u : users.values()) {
-	    if (u.getID().equals(id)) {
-		return u;
-	    }
-	}
-	for (User u : fakeUsers.values()) {
-	    if (u.getID().equals(id)) {
-		return u;
-	    }
-	}
-	return null;
+	return id == null ? null : ids.get(id);
     }
 
 }
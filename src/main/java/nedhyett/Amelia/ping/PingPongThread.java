@@ -32,15 +32,23 @@ package nedhyett.Amelia.ping;
 
 import nedhyett.Amelia.Amelia;
 import nedhyett.Amelia.AmeliaThread;
-import nedhyett.Amelia.managers.UserManager;
+import nedhyett.Amelia.core.connection.ClientConnection;
 
 /**
- * Makes sure a connection is not dead.
+ * Makes sure a connection is not dead. Drives a timing wheel on which every connection has a
+ * PingTimeout.
  *
  * @author Ned
  */
 public class PingPongThread extends AmeliaThread {
 
+    /**
+     * Resolution of the wheel.
+     */
+    private static final long TICK_MILLIS = 1000L;
+
+    private static final TimerWheel wheel = new TimerWheel(TICK_MILLIS, 512, System.currentTimeMillis());
+
     /**
      * Create a new PingPongThread.
      */
@@ -50,27 +58,37 @@ public class PingPongThread extends AmeliaThread {
 	this.setDaemon(true);
     }
 
+    /**
+     * Start watching a connection.
+     *
+     * @param connection
+     *
+     * @return the timeout to pass to untrack once the connection closes
+     */
+    public static PingTimeout track(ClientConnection connection) {
+	PingTimeout timeout = new PingTimeout(connection);
+	wheel.schedule(timeout, connection.getLastSeen() + Amelia.config.pingFrequency * 1000L);
+	return timeout;
+    }
+
+    /**
+     * Stop watching a connection.
+     *
+     * @param timeout
+     */
+    public static void untrack(PingTimeout timeout) {
+	wheel.cancel(timeout);
+    }
+
     @Override
     public void run() {
-	try {
-	    while (!this.isInterrupted()) {
-		UserManager.getAllUsers().stream().filter((u) -> (!u.respondedToLastPing)).forEach((u) -> {
-		    u.quit("Ping timeout: 120 seconds");
-		});
-		UserManager.getAllUsers().stream().filter((u) -> (u.lastAction + 120000 < System.currentTimeMillis())).map((u) -> {
-		    u.respondedToLastPing = false;
-		    return u;
-		}).forEach((u) -> {
-		    u.sendRaw(null, "PING :" + Amelia.config.serverHost);
-		});
-		try {
-		    Thread.sleep(120000); //2 min
-		} catch (InterruptedException e) {
-
-		}
+	while (!this.isInterrupted()) {
+	    wheel.advance(System.currentTimeMillis());
+	    try {
+		Thread.sleep(TICK_MILLIS);
+	    } catch (InterruptedException e) {
+		break;
 	    }
-	} catch (Exception e) {
-
 	}
     }
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ *  All rights reserved.
+ * 
+ *  By using this program/package/library you agree to be completely and unconditionally
+ *  bound by the agreement displayed below. Any deviation from this agreement will not
+ *  be tolerated.
+ * 
+ *  Redistribution and use in source and binary forms, with or without modification,
+ *  are permitted provided that the following conditions are met:
+ * 
+ *  1. Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright notice, this
+ *  list of conditions and the following disclaimer in the documentation and/or other
+ *  materials provided with the distribution.
+ *  3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ *  4. The redistribution must contain reference to the original author, and this page.
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.ping;
+
+import nedhyett.Amelia.Amelia;
+import nedhyett.Amelia.core.connection.ClientConnection;
+import nedhyett.Amelia.core.users.User;
+
+/**
+ * Keeps an eye on a single connection. It sleeps until pingFrequency seconds after the last
+ * data the client sent; if nothing has arrived by then it sends a PING, and if nothing arrives
+ * within pingTimeout seconds of that the client is dropped. Receiving data only updates the
+ * connection's lastSeen, so a busy client costs one wheel visit per pingFrequency.
+ *
+ * @author Ned
+ */
+public class PingTimeout extends TimerWheel.Timeout {
+
+    private final ClientConnection connection;
+
+    /**
+     * When the outstanding PING was sent, or 0 if there is none.
+     */
+    private long pingSentAt = 0L;
+
+    /**
+     * Create a new ping timeout for the connection.
+     *
+     * @param connection
+     */
+    public PingTimeout(ClientConnection connection) {
+	this.connection = connection;
+    }
+
+    @Override
+    protected long expire(long now) {
+	if (!this.connection.isOpen()) {
+	    return -1;
+	}
+	User user = this.connection.getParent();
+	long seen = this.connection.getLastSeen();
+	long frequency = Amelia.config.pingFrequency * 1000L;
+	if (this.pingSentAt != 0L) {
+	    if (seen < this.pingSentAt) {
+		this.connection.getLoop().execute(() -> user.quit("Ping timeout: " + Amelia.config.pingTimeout + " seconds"));
+		return -1;
+	    }
+	    this.pingSentAt = 0L;
+	}
+	if (seen + frequency > now) {
+	    return seen + frequency;
+	}
+	user.respondedToLastPing = false;
+	user.sendRaw(null, "PING :" + Amelia.config.serverHost);
+	this.pingSentAt = now;
+	return now + Amelia.config.pingTimeout * 1000L;
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2014, Ned Hyett
+ *  All rights reserved.
+ * 
+ *  By using this program/package/library you agree to be completely and unconditionally
+ *  bound by the agreement displayed below. Any deviation from this agreement will not
+ *  be tolerated.
+ * 
+ *  Redistribution and use in source and binary forms, with or without modification,
+ *  are permitted provided that the following conditions are met:
+ * 
+ *  1. Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright notice, this
+ *  list of conditions and the following disclaimer in the documentation and/or other
+ *  materials provided with the distribution.
+ *  3. The redistribution is not sold, unless permission is granted from the copyright holder.
+ *  4. The redistribution must contain reference to the original author, and this page.
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nedhyett.Amelia.ping;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A hashed timing wheel. Timeouts are hashed into slots by deadline, and each tick only visits
+ * the slot that is due, so the cost of a tick depends on how many timeouts are expiring rather
+ * than on how many exist. Timeouts can be scheduled and cancelled from any thread; the slots
+ * themselves are only touched by the thread calling advance().
+ *
+ * @author Ned
+ */
+public class TimerWheel {
+
+    /**
+     * Something waiting on the wheel.
+     */
+    public static abstract class Timeout {
+
+	private volatile boolean cancelled = false;
+
+	private long deadline;
+
+	private long rounds;
+
+	private int slot = -1;
+
+	private Timeout prev, next;
+
+	/**
+	 * Called on the wheel thread once the deadline has passed.
+	 *
+	 * @param now
+	 *
+	 * @return the next deadline to wait for, or -1 to drop off the wheel
+	 */
+	protected abstract long expire(long now);
+
+	/**
+	 * Has this timeout been cancelled?
+	 *
+	 * @return
+	 */
+	public boolean isCancelled() {
+	    return this.cancelled;
+	}
+
+    }
+
+    private final Timeout[] slots;
+
+    private final int mask;
+
+    private final long tickMillis;
+
+    private final long startTime;
+
+    /**
+     * The next tick to be processed.
+     */
+    private long tick = 0;
+
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create a new wheel.
+     *
+     * @param tickMillis the resolution of the wheel
+     * @param slots      the number of slots (rounded up to a power of two)
+     * @param startTime  the time of tick 0
+     */
+    public TimerWheel(long tickMillis, int slots, long startTime) {
+	int size = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+	this.slots = new Timeout[size];
+	this.mask = size - 1;
+	this.tickMillis = tickMillis;
+	this.startTime = startTime;
+    }
+
+    /**
+     * Schedule a timeout. It is put on the wheel at the next tick.
+     *
+     * @param timeout
+     * @param deadline
+     */
+    public void schedule(Timeout timeout, long deadline) {
+	timeout.deadline = deadline;
+	this.scheduled.add(timeout);
+    }
+
+    /**
+     * Cancel a timeout. It will not expire after this returns.
+     *
+     * @param timeout
+     */
+    public void cancel(Timeout timeout) {
+	timeout.cancelled = true;
+	this.cancelled.add(timeout);
+    }
+
+    /**
+     * Process every tick up to the given time. Must only be called from one thread.
+     *
+     * @param now
+     */
+    public void advance(long now) {
+	Timeout t;
+	while ((t = this.scheduled.poll()) != null) {
+	    if (!t.cancelled) {
+		this.insert(t, t.deadline, this.tick);
+	    }
+	}
+	while ((t = this.cancelled.poll()) != null) {
+	    this.unlink(t);
+	}
+	while (this.startTime + this.tick * this.tickMillis <= now) {
+	    this.expireSlot((int) (this.tick & this.mask), now);
+	    this.tick++;
+	}
+    }
+
+    private void expireSlot(int slot, long now) {
+	Timeout t = this.slots[slot];
+	while (t != null) {
+	    Timeout next = t.next;
+	    if (t.rounds > 0) {
+		t.rounds--;
+	    } else {
+		this.unlink(t);
+		if (!t.cancelled) {
+		    long deadline = t.expire(now);
+		    if (deadline >= 0 && !t.cancelled) {
+			this.insert(t, deadline, this.tick + 1);
+		    }
+		}
+	    }
+	    t = next;
+	}
+    }
+
+    /**
+     * Put a timeout in the slot for its deadline. base is the first tick that has not been
+     * processed yet; anything already due goes there.
+     */
+    private void insert(Timeout t, long deadline, long base) {
+	long target = Math.max((deadline - this.startTime + this.tickMillis - 1) / this.tickMillis, base);
+	t.deadline = deadline;
+	t.rounds = (target - base) / this.slots.length;
+	t.slot = (int) (target & this.mask);
+	t.prev = null;
+	t.next = this.slots[t.slot];
+	if (t.next != null) {
+	    t.next.prev = t;
+	}
+	this.slots[t.slot] = t;
+    }
+
+    private void unlink(Timeout t) {
+	if (t.slot < 0) {
+	    return;
+	}
+	if (t.prev != null) {
+	    t.prev.next = t.next;
+	} else {
+	    this.slots[t.slot] = t.next;
+	}
+	if (t.next != null) {
+	    t.next.prev = t.prev;
+	}
+	t.prev = t.next = null;
+	t.slot = -1;
+    }
+
+}
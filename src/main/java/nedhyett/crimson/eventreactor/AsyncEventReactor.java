@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.eventreactor;
+
+import nedhyett.crimson.threading.PartitionedExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An EventReactor that can also publish events in the background, so a slow listener does not hold
+ * up the thread that produced the event (for example a network thread). Events published with the
+ * same key (such as a client or a stream) are delivered in the order they were published; events
+ * with different keys are delivered in parallel.
+ *
+ * @author Ned Hyett
+ */
+public class AsyncEventReactor extends EventReactor {
+
+	private final PartitionedExecutor executor;
+
+	/**
+	 * Create a new AsyncEventReactor with its own executor.
+	 *
+	 * @param name         the name to assign to this reactor.
+	 * @param lockedEvents a list of classes that the events must extend to be allowed into this reactor.
+	 */
+	public AsyncEventReactor(String name, Class<? extends IEvent>... lockedEvents) {
+		this(name, new PartitionedExecutor("EventReactor - " + name), lockedEvents);
+	}
+
+	/**
+	 * Create a new AsyncEventReactor that delivers events on the provided executor. The executor
+	 * may be shared between reactors.
+	 *
+	 * @param name         the name to assign to this reactor.
+	 * @param executor     the executor to deliver events on.
+	 * @param lockedEvents a list of classes that the events must extend to be allowed into this reactor.
+	 */
+	public AsyncEventReactor(String name, PartitionedExecutor executor, Class<? extends IEvent>... lockedEvents) {
+		super(name, lockedEvents);
+		this.executor = executor;
+	}
+
+	/**
+	 * Publish an event in the background. No ordering is guaranteed against other events.
+	 *
+	 * @param e the event to publish.
+	 *
+	 * @return completes with the result of {@link #publish(IEvent)} once every listener has run.
+	 */
+	public CompletableFuture<Boolean> publishAsync(IEvent e) {
+		return submit(null, e);
+	}
+
+	/**
+	 * Publish an event in the background, after every event previously published with an equal key.
+	 *
+	 * @param key the ordering key.
+	 * @param e   the event to publish.
+	 *
+	 * @return completes with the result of {@link #publish(IEvent)} once every listener has run.
+	 */
+	public CompletableFuture<Boolean> publishAsync(Object key, IEvent e) {
+		if(key == null) throw new IllegalArgumentException("Key cannot be null!");
+		return submit(key, e);
+	}
+
+	/**
+	 * Get the executor events are delivered on.
+	 *
+	 * @return the executor.
+	 */
+	public PartitionedExecutor getExecutor() {
+		return executor;
+	}
+
+	private CompletableFuture<Boolean> submit(Object key, IEvent e) {
+		if(e == null) throw new IllegalStateException("Cannot publish null event!");
+		CompletableFuture<Boolean> future = new CompletableFuture<>();
+		Runnable task = () -> {
+			try {
+				future.complete(publish(e));
+			} catch(Throwable t) {
+				future.completeExceptionally(t);
+			}
+		};
+		try {
+			if(key == null) {
+				executor.execute(task);
+			} else {
+				executor.execute(key, task);
+			}
+		} catch(RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.eventreactor;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * A direct call into an event handler method.
+ *
+ * @author Ned Hyett
+ */
+@FunctionalInterface
+public interface EventInvoker {
+
+	/**
+	 * Call the handler.
+	 *
+	 * @param listener the object that owns the handler.
+	 * @param event    the event to pass.
+	 */
+	void invoke(Object listener, IEvent event);
+
+	/**
+	 * Create an invoker for the handler method. Public handlers in public classes that this class
+	 * loader can see get a generated class that calls the method directly, just like a lambda
+	 * would. Anything else can't be reached from here that way, so it falls back to a MethodHandle.
+	 *
+	 * @param method the handler method.
+	 *
+	 * @return the invoker.
+	 */
+	static EventInvoker of(Method method) {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		if(Modifier.isPublic(method.getModifiers()) && Modifier.isPublic(method.getDeclaringClass().getModifiers())
+				&& isVisible(method.getDeclaringClass()) && isVisible(method.getParameterTypes()[0])) {
+			try {
+				MethodHandle target = lookup.unreflect(method);
+				CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+						MethodType.methodType(EventInvoker.class),
+						MethodType.methodType(void.class, Object.class, IEvent.class),
+						target,
+						MethodType.methodType(void.class, method.getDeclaringClass(), method.getParameterTypes()[0]));
+				return (EventInvoker) site.getTarget().invoke();
+			} catch(Throwable ignored) {
+				//Not visible from here (e.g. loaded by another class loader), use a handle instead.
+			}
+		}
+		MethodHandle handle;
+		try {
+			method.setAccessible(true);
+			handle = lookup.unreflect(method).asType(MethodType.methodType(void.class, Object.class, IEvent.class));
+		} catch(IllegalAccessException | RuntimeException ex) {
+			throw new IllegalArgumentException("Cannot access handler " + method, ex);
+		}
+		return (listener, event) -> {
+			try {
+				handle.invokeExact(listener, event);
+			} catch(RuntimeException | Error ex) {
+				throw ex;
+			} catch(Throwable t) {
+				throw new RuntimeException(t);
+			}
+		};
+	}
+
+	/**
+	 * Check whether a class resolves to the same class from our own class loader. The generated
+	 * invoker is defined next to this class, so a handler loaded by a child loader (plugins, the
+	 * dependency loader) links fine here but fails with a NoClassDefFoundError on first call.
+	 *
+	 * @param clazz the class to look up.
+	 *
+	 * @return whether the generated invoker can use it.
+	 */
+	static boolean isVisible(Class<?> clazz) {
+		if(clazz.isPrimitive()) return true;
+		try {
+			return Class.forName(clazz.getName(), false, EventInvoker.class.getClassLoader()) == clazz;
+		} catch(ClassNotFoundException | LinkageError ex) {
+			return false;
+		}
+	}
+
+}
@@ -27,15 +27,22 @@ package nedhyett.crimson.eventreactor;
 import nedhyett.crimson.logging.CrimsonLog;
 import nedhyett.crimson.logging.MiniLogger;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A system for sending events to places preventing the need for race-conditions.
+ * <p>
+ * Listeners may be registered and unregistered from any thread, including from inside a handler
+ * while an event is being published.
  *
  * @author Ned Hyett
  */
@@ -59,12 +66,25 @@ public class EventReactor implements WildcardListener {
 	/**
 	 * A list of Event Listeners in their containers.
 	 */
-	private final HashMap<Class<? extends IEvent>, ArrayList<ListenerContainer>> listeners = new HashMap<>();
+	private final ConcurrentHashMap<Class<? extends IEvent>, CopyOnWriteArrayList<ListenerContainer>> listeners = new ConcurrentHashMap<>();
+
+	/**
+	 * The listeners that handle each event class, including those registered for its
+	 * superclasses and interfaces, most specific first. Filled in on first publish and replaced
+	 * with an empty map whenever a listener is added or removed, so a lookup that raced with the
+	 * change can only ever fill in the map that was thrown away.
+	 */
+	private volatile Map<Class<?>, ListenerContainer[]> dispatch = new ConcurrentHashMap<>();
 
 	/**
 	 * These listeners will receive every event sent to the reactor.
 	 */
-	private final HashMap<String, WildcardListener> wildcardListeners = new HashMap<>();
+	private final LinkedHashMap<String, WildcardListener> wildcardListeners = new LinkedHashMap<>();
+
+	/**
+	 * Copy of wildcardListeners' values for publish to loop over.
+	 */
+	private volatile WildcardListener[] wildcards = new WildcardListener[0];
 
 	/**
 	 * A set of classes that "echo" events to other places, for example, over
@@ -96,18 +116,18 @@ public class EventReactor implements WildcardListener {
 	 *
 	 * @param listener the class to search for event handlers.
 	 */
-	public void register(Object listener) {
+	public synchronized void register(Object listener) {
 		Class clazz = listener.getClass();
 		Method[] methods = clazz.getDeclaredMethods();
 		for(Method m : methods) {
 			if(m.isAnnotationPresent(EventSubscribe.class)) {
 				if(!validateMethod(clazz, m)) continue;
 				Class[] pars = m.getParameterTypes();
-				if(!listeners.containsKey(pars[0])) listeners.put(pars[0], new ArrayList<>());
-				listeners.get(pars[0]).add(new ListenerContainer(m, listener));
+				listeners.computeIfAbsent(pars[0], (type) -> new CopyOnWriteArrayList<>()).add(new ListenerContainer(m, listener));
 				logger.debug("Registered %s in class %s to event %s", m.getName(), listener.getClass(), pars[0].getName());
 			}
 		}
+		dispatch = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -115,21 +135,19 @@ public class EventReactor implements WildcardListener {
 	 *
 	 * @param listener the listener
 	 */
-	public void unregister(Object listener) {
+	public synchronized void unregister(Object listener) {
 		Class clazz = listener.getClass();
 		Method[] methods = clazz.getDeclaredMethods();
 		for(Method m : methods) {
 			if(m.isAnnotationPresent(EventSubscribe.class)) {
 				Class[] pars = m.getParameterTypes();
 				if(!listeners.containsKey(pars[0])) continue;
-				for(ListenerContainer container : listeners.get(pars[0])) {
-					if(container.containerClass == listener) {
-						listeners.get(pars[0]).remove(container);
-						logger.debug("Removed %s from reactor", container.containerClass.getClass().getCanonicalName());
-					}
+				if(listeners.get(pars[0]).removeIf((container) -> container.containerClass == listener)) {
+					logger.debug("Removed %s from reactor", listener.getClass().getCanonicalName());
 				}
 			}
 		}
+		dispatch = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -138,12 +156,13 @@ public class EventReactor implements WildcardListener {
 	 * @param id       Unique ID for the listener.
 	 * @param wildcard The listener class itself.
 	 */
-	public void registerWildcard(String id, WildcardListener wildcard) {
+	public synchronized void registerWildcard(String id, WildcardListener wildcard) {
 		if(wildcardListeners.containsKey(id)) {
 			logger.warning("Cannot overwrite WildcardListener with id %s", id);
 			return;
 		}
 		wildcardListeners.put(id, wildcard);
+		wildcards = wildcardListeners.values().toArray(new WildcardListener[0]);
 	}
 
 	/**
@@ -151,8 +170,9 @@ public class EventReactor implements WildcardListener {
 	 *
 	 * @param id The unique ID of the wildcard listener
 	 */
-	public void unregisterWildcard(String id) {
+	public synchronized void unregisterWildcard(String id) {
 		wildcardListeners.remove(id);
+		wildcards = wildcardListeners.values().toArray(new WildcardListener[0]);
 	}
 
 	private boolean validateMethod(Class clazz, Method m) {
@@ -194,7 +214,8 @@ public class EventReactor implements WildcardListener {
 	 */
 	public boolean publish(IEvent e) {
 		if(e == null) throw new IllegalStateException("Cannot publish null event!");
-		if(!listeners.containsKey(e.getClass()) || listeners.get(e.getClass()).isEmpty()) return true;
+		final ListenerContainer[] targets = resolve(e.getClass());
+		if(targets.length == 0) return true;
 		if(!e.setReactor(this)) return false;
 		if(!lockedEvents.isEmpty()) {
 			boolean canPublish = false;
@@ -206,28 +227,53 @@ public class EventReactor implements WildcardListener {
 			}
 			if(!canPublish) return false;
 		}
-		for(WildcardListener listener : wildcardListeners.values()) {
+		for(WildcardListener listener : wildcards) {
 			listener.handleWildcardEvent(e);
 			if(e.isCancelled() && e.returnOnCancel()) return false;
 		}
-		for(ListenerContainer c : listeners.get(e.getClass())) {
+		for(ListenerContainer c : targets) {
 			try {
-				c.method.invoke(c.containerClass, e);
-			} catch(IllegalAccessException | IllegalArgumentException ex) {
-				logger.severe("Failed to invoke handler (%s in class %s)", c.method.getName(), c.containerClass.getClass().getName());
-				logger.severe(ex);
-			} catch(InvocationTargetException ex) {
+				c.invoker.invoke(c.containerClass, e);
+			} catch(Throwable ex) {
 				logger.severe("Failed to invoke handler (%s in class %s)", c.method.getName(), c.containerClass.getClass().getName());
 				logger.severe(ex);
-				logger.severe("Caused by:");
-				logger.severe(ex.getCause());
-
 			}
 			if(e.isCancelled() && e.returnOnCancel()) return false;
 		}
 		return !e.isCancelled();
 	}
 
+	/**
+	 * Get the listeners for an event class, including those registered for any of its
+	 * superclasses or interfaces.
+	 *
+	 * @param event the event class.
+	 *
+	 * @return the listeners, most specific event type first.
+	 */
+	private ListenerContainer[] resolve(Class<?> event) {
+		final Map<Class<?>, ListenerContainer[]> dispatch = this.dispatch;
+		ListenerContainer[] targets = dispatch.get(event);
+		if(targets != null) return targets;
+		LinkedHashSet<Class<?>> types = new LinkedHashSet<>();
+		ArrayDeque<Class<?>> queue = new ArrayDeque<>();
+		queue.add(event);
+		while(!queue.isEmpty()) {
+			Class<?> type = queue.poll();
+			if(!types.add(type)) continue;
+			if(type.getSuperclass() != null) queue.add(type.getSuperclass());
+			Collections.addAll(queue, type.getInterfaces());
+		}
+		ArrayList<ListenerContainer> found = new ArrayList<>();
+		for(Class<?> type : types) {
+			CopyOnWriteArrayList<ListenerContainer> registered = listeners.get(type);
+			if(registered != null) found.addAll(registered);
+		}
+		targets = found.toArray(new ListenerContainer[0]);
+		dispatch.put(event, targets);
+		return targets;
+	}
+
 	/**
 	 * Check if any listeners are registered for the event to this reactor.
 	 *
@@ -236,7 +282,7 @@ public class EventReactor implements WildcardListener {
 	 * @return presence of any listeners for the provided event
 	 */
 	public boolean hasListenersFor(Class<? extends IEvent> event) {
-		return listeners.containsKey(event) && !listeners.get(event).isEmpty();
+		return resolve(event).length > 0;
 	}
 
 	/**
@@ -247,15 +293,16 @@ public class EventReactor implements WildcardListener {
 	 * @return the number of listeners registered for the provided event
 	 */
 	public int countListenersFor(Class<? extends IEvent> event) {
-		return listeners.containsKey(event) ? listeners.get(event).size() : 0;
+		return resolve(event).length;
 	}
 
 	/**
 	 * Delete all reactor listeners.
 	 */
-	public void flushAll() {
+	public synchronized void flushAll() {
 		logger.warning("Flushing all reactor listeners!");
 		listeners.clear();
+		dispatch = new ConcurrentHashMap<>();
 	}
 
 	MiniLogger getLogger() {
@@ -43,9 +43,15 @@ public class ListenerContainer {
 	 */
 	public final Object containerClass;
 
+	/**
+	 * Calls the method without going through reflection.
+	 */
+	public final EventInvoker invoker;
+
 	public ListenerContainer(Method method, Object containerClass) {
 		this.method = method;
 		this.containerClass = containerClass;
+		this.invoker = EventInvoker.of(method);
 	}
 
 }
@@ -0,0 +1,284 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.logging;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves log output off the threads that log. Records are handed to a single background writer
+ * through a bounded lock-free ring buffer; the writer drains them in batches, formats them and
+ * writes each batch to the console and the log file in one go.
+ *
+ * @author Ned Hyett
+ */
+final class AsyncLogAppender implements Runnable {
+
+	/**
+	 * The most records written in one batch.
+	 */
+	private static final int BATCH_SIZE = 512;
+
+	/**
+	 * How long the writer sleeps when there is nothing to do, unless woken by a new record.
+	 */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final LogRecord[] slots;
+
+	/**
+	 * Per slot sequence numbers. A slot is free for the producer that claimed position p when its
+	 * sequence is p, and holds a record for the writer when its sequence is p + 1.
+	 */
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	/**
+	 * The next position producers will claim.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The next position the writer will read. Only written by the writer thread.
+	 */
+	private volatile long head = 0;
+
+	/**
+	 * Records thrown away because the buffer was full, not yet reported.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread writer;
+
+	private volatile boolean sleeping = false;
+
+	private volatile boolean running = true;
+
+	/**
+	 * The log file, or null if not writing to one. Guarded by this.
+	 */
+	private RollingLogFile file = null;
+
+	private final StringBuilder out = new StringBuilder();
+
+	private final StringBuilder err = new StringBuilder();
+
+	private final StringBuilder disk = new StringBuilder();
+
+	private long cachedSecond = -1;
+
+	private String cachedDate;
+
+	/**
+	 * Create the appender and start its writer thread.
+	 *
+	 * @param capacity the number of records the buffer can hold, rounded up to a power of two.
+	 */
+	AsyncLogAppender(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.slots = new LogRecord[size];
+		this.sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++) sequences.set(i, i);
+		this.mask = size - 1;
+		this.writer = new Thread(this, "Crimson Log Writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "Crimson Log Shutdown"));
+	}
+
+	/**
+	 * Queue a record to be written.
+	 *
+	 * @param record the record.
+	 * @param policy what to do if the buffer is full.
+	 */
+	void append(LogRecord record, LogOverflowPolicy policy) {
+		if(!running) {
+			synchronized(this) {
+				write(record);
+				flushBatch();
+			}
+			return;
+		}
+		while(!offer(record)) {
+			if(policy == LogOverflowPolicy.DROP || (policy == LogOverflowPolicy.DROP_NON_ERRORS && !record.level.isError)) {
+				dropped.incrementAndGet();
+				return;
+			}
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+		}
+		if(sleeping) LockSupport.unpark(writer);
+	}
+
+	private boolean offer(LogRecord record) {
+		while(true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long diff = sequences.get(index) - position;
+			if(diff == 0) {
+				if(tail.compareAndSet(position, position + 1)) {
+					slots[index] = record;
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if(diff < 0) {
+				return false; //Full.
+			}
+		}
+	}
+
+	private LogRecord poll() {
+		long position = head;
+		int index = (int) position & mask;
+		if(sequences.get(index) != position + 1) return null;
+		LogRecord record = slots[index];
+		slots[index] = null;
+		sequences.set(index, position + slots.length);
+		head = position + 1;
+		return record;
+	}
+
+	/**
+	 * Use this file for log output from now on. The previous file, if any, is closed.
+	 *
+	 * @param log the new file, or null to stop writing to a file.
+	 */
+	synchronized void setFile(RollingLogFile log) {
+		if(file != null) file.close();
+		file = log;
+	}
+
+	/**
+	 * Wait until everything logged before this call has been written.
+	 *
+	 * @param timeout the longest to wait, in milliseconds.
+	 */
+	void flush(long timeout) {
+		long target = tail.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while(head < target && running && System.nanoTime() < deadline) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+	}
+
+	@Override
+	public void run() {
+		while(running) {
+			if(!drain()) {
+				sleeping = true;
+				if(head == tail.get()) LockSupport.parkNanos(this, IDLE_NANOS);
+				sleeping = false;
+			}
+		}
+		while(drain()) ;
+	}
+
+	/**
+	 * Write out one batch.
+	 *
+	 * @return true if anything was written.
+	 */
+	private boolean drain() {
+		synchronized(this) {
+			int count = 0;
+			LogRecord record;
+			while(count < BATCH_SIZE && (record = poll()) != null) {
+				write(record);
+				count++;
+			}
+			long lost = dropped.getAndSet(0);
+			if(lost > 0) {
+				write(new LogRecord(LogLevel.WARNING, "CrimsonLog", lost + " log messages were dropped because the log writer fell behind", null));
+			}
+			if(count == 0 && lost == 0) return false;
+			flushBatch();
+			return true;
+		}
+	}
+
+	private void write(LogRecord record) {
+		String line;
+		try {
+			line = format(record);
+		} catch(RuntimeException ex) {
+			line = "Failed to format log message: " + ex;
+		}
+		(record.level.isError ? err : out).append(line).append(System.lineSeparator());
+		if(file != null) disk.append(line).append('\n');
+	}
+
+	private String format(LogRecord record) {
+		long second = record.timestamp / 1000;
+		if(second != cachedSecond) {
+			cachedSecond = second;
+			cachedDate = new Date(record.timestamp).toString();
+		}
+		return CrimsonLog.doLineFormatting(cachedDate, record.level, record.id, record.getMessage());
+	}
+
+	private void flushBatch() {
+		if(out.length() > 0) {
+			print(CrimsonLog.stdout, out);
+		}
+		if(err.length() > 0) {
+			print(CrimsonLog.stderr, err);
+		}
+		if(disk.length() > 0) {
+			try {
+				file.write(ByteBuffer.wrap(disk.toString().getBytes(StandardCharsets.UTF_8)), System.currentTimeMillis());
+			} catch(IOException ignored) {
+			} finally {
+				disk.setLength(0);
+			}
+		}
+	}
+
+	private static void print(PrintStream stream, StringBuilder text) {
+		stream.print(text);
+		stream.flush();
+		text.setLength(0);
+	}
+
+	private void shutdown() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch(InterruptedException ignored) {}
+		setFile(null);
+		RollingLogFile.awaitCompression(TimeUnit.SECONDS.toMillis(5));
+	}
+
+}
@@ -31,9 +31,13 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main Crimson Logging Utility.
+ * <p>
+ * Messages are written by a background thread, so logging never waits on the console or the
+ * disk. Call {@link #flush()} if the output needs to be visible before carrying on.
  *
  * @author Ned Hyett
  */
@@ -55,9 +59,14 @@ public class CrimsonLog {
 	protected static PrintStream stderr = System.err;
 
 	/**
-	 * The file to write the log output to.
+	 * The number of messages that can be waiting to be written.
 	 */
-	private static OutputStream file = null;
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Writes the log output to the console and the log file.
+	 */
+	private static final AsyncLogAppender appender = new AsyncLogAppender(BUFFER_SIZE);
 
 	private static final String disableFsFlag = "-Dneptune.crimson.log.disablefs";
 
@@ -73,6 +82,37 @@ public class CrimsonLog {
 
 	public static LogLevel minimumLogLevel = LogLevel.DEBUG;
 
+	/**
+	 * What to do with a message when BUFFER_SIZE messages are already waiting to be written.
+	 */
+	public static volatile LogOverflowPolicy overflowPolicy = LogOverflowPolicy.DROP_NON_ERRORS;
+
+	/**
+	 * Start a new log file once the current one reaches this many bytes (0 for no limit).
+	 * This and the other log file settings must be set before initialising.
+	 */
+	public static long maxLogFileSize = 64L * 1024 * 1024;
+
+	/**
+	 * Start a new log file at every multiple of this many milliseconds since midnight (0 to only roll by size).
+	 */
+	public static long logRollInterval = TimeUnit.DAYS.toMillis(1);
+
+	/**
+	 * The most old log files to keep (0 for no limit).
+	 */
+	public static int maxLogFiles = 30;
+
+	/**
+	 * The most space old log files may take up (0 for no limit).
+	 */
+	public static long maxLogBytes = 1024L * 1024 * 1024;
+
+	/**
+	 * Write the current log file through a memory mapping.
+	 */
+	public static boolean mappedLogFile = false;
+
 	/**
 	 * Create a MiniLogger that has a "zone name".
 	 *
@@ -98,8 +138,7 @@ public class CrimsonLog {
 		CrimsonLog.name = name;
 		try {
 			if(shouldWriteLogToFile) {
-				cycleLogFiles();
-				file = new FileOutputStream(new File(name.toLowerCase() + ".0.log"));
+				appender.setFile(new RollingLogFile(new File("."), name.toLowerCase(), maxLogFileSize, logRollInterval, maxLogFiles, maxLogBytes, mappedLogFile));
 			}
 		} catch(IOException ignored) {
 		}
@@ -117,37 +156,34 @@ public class CrimsonLog {
 		semiInitialise(name);
 	}
 
-	private static void cycleLogFiles() throws IOException {
-		if(!shouldWriteLogToFile) return;
-		File f = new File(name.toLowerCase() + ".0.log");
-		if(f.exists()) {
-			int maxLogs = 3;
-			if(new File(name.toLowerCase() + "." + maxLogs + ".log").exists()) {
-				new File(name.toLowerCase() + "." + maxLogs + ".log").delete();
-			}
-			for(int i = maxLogs - 1; i >= 0; i--) {
-				if(new File(name.toLowerCase() + "." + i + ".log").exists()) {
-					new File(name.toLowerCase() + "." + i + ".log").renameTo(new File(name.toLowerCase() + "." + (i + 1) + ".log"));
-				}
-			}
-
-		}
-		f.createNewFile();
-		file = new FileOutputStream(f);
-	}
-
 	static void dispose(MiniLogger logger) {
 		childLoggers.remove(logger.getId());
 	}
 
 	protected static String doLineFormatting(LogLevel level, String id, String message) {
+		return doLineFormatting(new Date().toString(), level, id, message);
+	}
+
+	static String doLineFormatting(String date, LogLevel level, String id, String message) {
 		//Fix the id
 		if(id == null) {
 			id = " ";
 		} else if(!id.startsWith("[") || !id.endsWith("]")) {
 			id = " [" + id.replace("[", "").replace("]", "") + "] ";
 		}
-		return String.format("[%s] [%s]%s[%s]: %s", new Date().toString(), name, id, level.toString().toUpperCase(), message);
+		return "[" + date + "] [" + name + "]" + id + "[" + level.identifier + "]: " + message;
+	}
+
+	/**
+	 * Check if messages at the given level would be logged. Use this to avoid building
+	 * expensive messages that would only be thrown away.
+	 *
+	 * @param level the level to check.
+	 *
+	 * @return true if the level is at or above minimumLogLevel.
+	 */
+	public static boolean isLoggable(LogLevel level) {
+		return level.ordinal() >= minimumLogLevel.ordinal();
 	}
 
 	public static void log(LogLevel level, String message) {
@@ -155,19 +191,28 @@ public class CrimsonLog {
 	}
 
 	public static void log(LogLevel level, String id, String message) {
+		log(level, id, message, null);
+	}
+
+	/**
+	 * Queue a message to be written.
+	 *
+	 * @param level   the level of the message.
+	 * @param id      the id of the logger, or null.
+	 * @param message the message, or a format string if format is not null.
+	 * @param format  the format arguments, or null. The message is only formatted if it is going
+	 *                to be written, and then on the writer thread.
+	 */
+	static void log(LogLevel level, String id, String message, Object[] format) {
 		if(level.ordinal() < minimumLogLevel.ordinal()) return;
-		String formattedMessage = doLineFormatting(level, id, message);
-		if(level.isError) {
-			try {
-				if(file != null) file.write((formattedMessage + "\n").getBytes());
-			} catch(IOException ignored) {}
-			stderr.println(formattedMessage);
-		} else {
-			try {
-				if(file != null) file.write((formattedMessage + "\n").getBytes());
-			} catch(IOException ignored) {}
-			stdout.println(formattedMessage);
-		}
+		appender.append(new LogRecord(level, id, message, format), overflowPolicy);
+	}
+
+	/**
+	 * Wait (for up to a few seconds) until everything logged so far has been written out.
+	 */
+	public static void flush() {
+		appender.flush(5000);
 	}
 
 	protected static void log(LogLevel level, ArrayList<String> list) {
@@ -193,7 +238,7 @@ public class CrimsonLog {
 	}
 
 	public static void fatal(String message, Object... format) {
-		fatal(String.format(message, format));
+		log(LogLevel.FATAL, null, message, format);
 	}
 
 	public static void critical(String message) {
@@ -205,7 +250,7 @@ public class CrimsonLog {
 	}
 
 	public static void critical(String message, Object... format) {
-		critical(String.format(message, format));
+		log(LogLevel.CRITICAL, null, message, format);
 	}
 
 	public static void severe(String message) {
@@ -217,7 +262,7 @@ public class CrimsonLog {
 	}
 
 	public static void severe(String message, Object... format) {
-		severe(String.format(message, format));
+		log(LogLevel.SEVERE, null, message, format);
 	}
 
 	public static void warning(String message) {
@@ -229,7 +274,7 @@ public class CrimsonLog {
 	}
 
 	public static void warning(String message, Object... format) {
-		warning(String.format(message, format));
+		log(LogLevel.WARNING, null, message, format);
 	}
 
 	public static void info(String message) {
@@ -241,7 +286,7 @@ public class CrimsonLog {
 	}
 
 	public static void info(String message, Object... format) {
-		info(String.format(message, format));
+		log(LogLevel.INFO, null, message, format);
 	}
 
 	public static void debug(String message) {
@@ -253,7 +298,7 @@ public class CrimsonLog {
 	}
 
 	public static void debug(String message, Object... format) {
-		debug(String.format(message, format));
+		log(LogLevel.DEBUG, null, message, format);
 	}
 
 }
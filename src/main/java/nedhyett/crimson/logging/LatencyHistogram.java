@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram in the style of HdrHistogram. Values are counted in buckets that double in
+ * width, each split into 64 linear sub-buckets, so any recorded value is known to within 1.6%
+ * while the whole histogram is a fixed 2688 counters. Recording is lock-free and can be done from
+ * any number of threads at once.
+ *
+ * @author Ned Hyett
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int HALF = SUB_BUCKETS >> 1;
+
+	/**
+	 * The widest bucket. Values from 2^(MAX_SHIFT + 7) up (about 39 hours in nanoseconds) all
+	 * land in the last sub-bucket.
+	 */
+	private static final int MAX_SHIFT = 40;
+
+	private static final int LENGTH = SUB_BUCKETS + MAX_SHIFT * HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+	private final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * Count a value.
+	 *
+	 * @param value the value, negative values are counted as 0.
+	 */
+	public void record(long value) {
+		if(value < 0) value = 0;
+		counts.incrementAndGet(index(value));
+		sum.add(value);
+		long current;
+		while(value < (current = min.get()) && !min.compareAndSet(current, value)) ;
+		while(value > (current = max.get()) && !max.compareAndSet(current, value)) ;
+	}
+
+	/**
+	 * Forget every value recorded so far. Values recorded while this runs may or may not be kept.
+	 */
+	public void reset() {
+		for(int i = 0; i < LENGTH; i++) counts.set(i, 0);
+		sum.reset();
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	/**
+	 * Summarise the values recorded so far.
+	 *
+	 * @return the summary.
+	 */
+	public Stats snapshot() {
+		long[] copy = new long[LENGTH];
+		long count = 0;
+		for(int i = 0; i < LENGTH; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		if(count == 0) return new Stats(0, 0, 0, 0, 0, 0, 0, 0, 0);
+		long total = sum.sum();
+		return new Stats(count, total, min.get(), max.get(), total / count,
+				percentile(copy, count, 50), percentile(copy, count, 90),
+				percentile(copy, count, 99), percentile(copy, count, 99.9));
+	}
+
+	private long percentile(long[] copy, long count, double percentile) {
+		long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for(int i = 0; i < LENGTH; i++) {
+			seen += copy[i];
+			if(seen >= target) return Math.min(highest(i), max.get());
+		}
+		return max.get();
+	}
+
+	static int index(long value) {
+		if(value < SUB_BUCKETS) return (int) value;
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		if(shift > MAX_SHIFT) return LENGTH - 1;
+		return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+	}
+
+	/**
+	 * Get the highest value that is counted in the sub-bucket at index.
+	 */
+	static long highest(int index) {
+		if(index < SUB_BUCKETS) return index;
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long sub = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * A summary of the values in a histogram. Percentiles are the highest value in the sub-bucket
+	 * the percentile falls in, so they never under-report.
+	 */
+	public static final class Stats {
+
+		public final long count;
+
+		public final long total;
+
+		public final long min;
+
+		public final long max;
+
+		public final long mean;
+
+		public final long p50;
+
+		public final long p90;
+
+		public final long p99;
+
+		public final long p999;
+
+		Stats(long count, long total, long min, long max, long mean, long p50, long p90, long p99, long p999) {
+			this.count = count;
+			this.total = total;
+			this.min = min;
+			this.max = max;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+		}
+
+	}
+
+}
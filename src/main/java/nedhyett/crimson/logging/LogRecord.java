@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.logging;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.IllegalFormatException;
+
+/**
+ * A single message waiting to be written by the AsyncLogAppender. Formatting is left to the
+ * writer thread, so the thread that logged the message only pays for creating this object.
+ *
+ * @author Ned Hyett
+ */
+final class LogRecord {
+
+	final LogLevel level;
+
+	final String id;
+
+	/**
+	 * When the message was logged, in milliseconds since the epoch.
+	 */
+	final long timestamp;
+
+	private final String message;
+
+	private final Object[] args;
+
+	/**
+	 * Create a new record.
+	 *
+	 * @param level   the level of the message.
+	 * @param id      the id of the logger, or null for the main logger.
+	 * @param message the message, or a format string if args is not null.
+	 * @param args    the format arguments, or null.
+	 */
+	LogRecord(LogLevel level, String id, String message, Object[] args) {
+		this.level = level;
+		this.id = id;
+		this.timestamp = System.currentTimeMillis();
+		this.message = message;
+		this.args = capture(args);
+	}
+
+	/**
+	 * Get the message, formatting it if needed.
+	 *
+	 * @return the message.
+	 */
+	String getMessage() {
+		if(args == null) return message;
+		try {
+			return String.format(message, args);
+		} catch(IllegalFormatException ex) {
+			return message + " (bad format: " + ex.getMessage() + ")";
+		}
+	}
+
+	/**
+	 * Arguments are formatted later on another thread, by which time a mutable object may have
+	 * changed or may not be safe to call into. Anything that isn't known to be immutable is
+	 * turned into a string now.
+	 */
+	private static Object[] capture(Object[] args) {
+		if(args == null || args.length == 0) return null;
+		Object[] copy = args.clone();
+		for(int i = 0; i < copy.length; i++) {
+			Object arg = copy[i];
+			if(arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+					|| arg instanceof Double || arg instanceof Float || arg instanceof Short
+					|| arg instanceof Byte || arg instanceof Character || arg instanceof Boolean
+					|| arg instanceof Enum || arg instanceof Class || arg instanceof BigInteger
+					|| arg instanceof BigDecimal) continue;
+			copy[i] = String.valueOf(arg);
+		}
+		return copy;
+	}
+
+}
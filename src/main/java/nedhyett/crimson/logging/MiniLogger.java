@@ -51,13 +51,19 @@ public class MiniLogger {
 	}
 
 	private void log(LogLevel level, String message) {
-		CrimsonLog.log(level, this.id, message);
-		String formattedMessage = CrimsonLog.doLineFormatting(level, this.id, message);
+		log(level, message, null);
+	}
+
+	private void log(LogLevel level, String message, Object[] format) {
+		CrimsonLog.log(level, this.id, message, format);
+		if(redirects.isEmpty()) return;
+		String formattedMessage = CrimsonLog.doLineFormatting(level, this.id, format == null ? message : String.format(message, format));
 		for(ILoggerRedirect rdr : redirects) rdr.onLine(formattedMessage);
 	}
 
 	private void log(LogLevel level, ArrayList<String> message) {
 		CrimsonLog.log(level, this.id, message);
+		if(redirects.isEmpty()) return;
 		for(String s : message) {
 			String formattedMessage = CrimsonLog.doLineFormatting(level, this.id, s);
 			for(ILoggerRedirect rdr : redirects) rdr.onLine(formattedMessage);
@@ -73,7 +79,7 @@ public class MiniLogger {
 	}
 
 	public void fatal(String message, Object... format) {
-		fatal(String.format(message, format));
+		log(LogLevel.FATAL, message, format);
 	}
 
 	public void critical(String message) {
@@ -85,7 +91,7 @@ public class MiniLogger {
 	}
 
 	public void critical(String message, Object... format) {
-		critical(String.format(message, format));
+		log(LogLevel.CRITICAL, message, format);
 	}
 
 	public void severe(String message) {
@@ -97,7 +103,7 @@ public class MiniLogger {
 	}
 
 	public void severe(String message, Object... format) {
-		severe(String.format(message, format));
+		log(LogLevel.SEVERE, message, format);
 	}
 
 	public void warning(String message) {
@@ -109,7 +115,7 @@ public class MiniLogger {
 	}
 
 	public void warning(String message, Object... format) {
-		warning(String.format(message, format));
+		log(LogLevel.WARNING, message, format);
 	}
 
 	public void info(String message) {
@@ -121,7 +127,7 @@ public class MiniLogger {
 	}
 
 	public void info(String message, Object... format) {
-		info(String.format(message, format));
+		log(LogLevel.INFO, message, format);
 	}
 
 	public void debug(String message) {
@@ -133,7 +139,7 @@ public class MiniLogger {
 	}
 
 	public void debug(String message, Object... format) {
-		debug(String.format(message, format));
+		log(LogLevel.DEBUG, message, format);
 	}
 
 	public void dispose() {
@@ -24,25 +24,41 @@
 
 package nedhyett.crimson.logging;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Allows tasks to be profiled. Calculates how long each task actually took.
+ * <p>
+ * Activities are timed with System.nanoTime on a per-thread stack, so the same profiler can be
+ * used from any number of threads, and activities can be nested. When timings are aggregated,
+ * every activity gets a LatencyHistogram that can be read back with {@link #snapshot()} or
+ * {@link #export()} while the program runs.
  *
  * @author Ned Hyett
  */
 public class Profiler {
 
 	/**
-	 * List of tasks currently being timed.
+	 * Profilers shared through getProfiler.
 	 */
-	private final ArrayList<RunningTask> activeTasks = new ArrayList<>();
+	private static final ConcurrentHashMap<String, Profiler> profilers = new ConcurrentHashMap<>();
 
 	/**
-	 * List of all tasks that have been timed.
+	 * Activities currently being timed on each thread, innermost last.
 	 */
-	private final HashMap<String, Long> sessionTasks = new HashMap<>();
+	private final ThreadLocal<ArrayDeque<Span>> activeTasks = ThreadLocal.withInitial(ArrayDeque::new);
+
+	/**
+	 * Timings of every activity that has finished.
+	 */
+	private final ConcurrentHashMap<String, LatencyHistogram> sessionTasks = new ConcurrentHashMap<>();
 
 	/**
 	 * The ID of this profiler
@@ -52,34 +68,30 @@ public class Profiler {
 	/**
 	 * Should this profiler print to system.out?
 	 */
-	private boolean verbose;
+	private volatile boolean verbose;
 
 	/**
 	 * Should this profiler aggregate it's findings?
 	 */
-	private boolean aggregateTimings;
+	private volatile boolean aggregateTimings;
 
 	/**
-	 * Create a new profiler with a specific ID.
+	 * Create a new profiler with a specific ID. Timings are aggregated.
 	 *
 	 * @param id
 	 */
 	public Profiler(String id) {
-		this.id = id;
-		verbose = false;
-		aggregateTimings = false;
+		this(id, false, true);
 	}
 
 	/**
-	 * Create a new profiler with a specific ID and verbose setting.
+	 * Create a new profiler with a specific ID and verbose setting. Timings are aggregated.
 	 *
 	 * @param id
 	 * @param verbose
 	 */
 	public Profiler(String id, boolean verbose) {
-		this.id = id;
-		this.verbose = verbose;
-		aggregateTimings = false;
+		this(id, verbose, true);
 	}
 
 	/**
@@ -95,43 +107,96 @@ public class Profiler {
 		this.aggregateTimings = aggregateTimings;
 	}
 
+	/**
+	 * Get the shared profiler with the given ID, creating it if needed.
+	 *
+	 * @param id the profiler ID.
+	 *
+	 * @return the profiler.
+	 */
+	public static Profiler getProfiler(String id) {
+		return profilers.computeIfAbsent(id, Profiler::new);
+	}
+
+	/**
+	 * Get every shared profiler.
+	 *
+	 * @return the profilers.
+	 */
+	public static Collection<Profiler> getProfilers() {
+		return new TreeMap<>(profilers).values();
+	}
+
 	/**
 	 * Start timing an activity
 	 *
 	 * @param id a unique ID
 	 */
 	public void startActivity(String id) {
-		activeTasks.add(new RunningTask(id));
+		activeTasks.get().addLast(new Span(this, id));
+	}
+
+	/**
+	 * Start timing an activity that ends when the returned span is closed. Meant for
+	 * try-with-resources.
+	 *
+	 * @param id a unique ID
+	 *
+	 * @return the span.
+	 */
+	public Span span(String id) {
+		Span span = new Span(this, id);
+		activeTasks.get().addLast(span);
+		return span;
 	}
 
 	/**
-	 * Stop timing an activity
+	 * Stop timing the innermost activity on this thread with the given ID.
 	 *
 	 * @param id a unique ID
 	 *
-	 * @return the time taken
+	 * @return the time taken in nanoseconds, or -1 if the activity was not started on this thread.
 	 */
 	public long endActivity(String id) {
-		RunningTask task = getTaskForId(id);
-		if(task == null) return -1;
-		long timeTaken = (System.nanoTime() * 1000000) - task.creationTime;
-		if(aggregateTimings) {
-			if(sessionTasks.containsKey(id)) {
-				sessionTasks.put(id, sessionTasks.get(id) + timeTaken);
-			} else {
-				sessionTasks.put(id, timeTaken);
+		Iterator<Span> it = activeTasks.get().descendingIterator();
+		while(it.hasNext()) {
+			Span span = it.next();
+			if(span.id.equals(id)) {
+				it.remove();
+				return finish(span);
 			}
 		}
-		if(verbose) CrimsonLog.info("[%s] Task %s took %s ms to complete.", this.id, id, timeTaken);
-		return timeTaken;
+		return -1;
 	}
 
-	private RunningTask getTaskForId(String id) {
-		if(activeTasks.isEmpty()) return null;
-		for(int i = activeTasks.size() - 1; i > -1; i--) {
-			if(activeTasks.get(i).id.equals(id)) return activeTasks.remove(i);
+	/**
+	 * Record an activity that was timed elsewhere.
+	 *
+	 * @param id    the activity ID.
+	 * @param nanos how long it took, in nanoseconds.
+	 */
+	public void record(String id, long nanos) {
+		if(aggregateTimings) {
+			LatencyHistogram histogram = sessionTasks.get(id);
+			if(histogram == null) histogram = sessionTasks.computeIfAbsent(id, (key) -> new LatencyHistogram());
+			histogram.record(nanos);
 		}
-		return null;
+		if(verbose) CrimsonLog.info("[%s] Task %s took %s ms to complete.", this.id, id, nanos / 1000000.0);
+	}
+
+	private long finish(Span span) {
+		long timeTaken = System.nanoTime() - span.start;
+		record(span.id, timeTaken);
+		return timeTaken;
+	}
+
+	/**
+	 * Get the ID of this profiler.
+	 *
+	 * @return
+	 */
+	public String getId() {
+		return id;
 	}
 
 	/**
@@ -171,23 +236,79 @@ public class Profiler {
 	}
 
 	/**
-	 * Get all aggregate timings
+	 * Get the total time spent in each activity, in nanoseconds.
 	 *
 	 * @return
 	 */
 	public HashMap<String, Long> getSessionTimings() {
-		return sessionTasks;
+		HashMap<String, Long> totals = new HashMap<>();
+		for(Map.Entry<String, LatencyHistogram> entry : sessionTasks.entrySet()) {
+			totals.put(entry.getKey(), entry.getValue().snapshot().total);
+		}
+		return totals;
 	}
 
+	/**
+	 * Summarise the timings of every activity, in nanoseconds.
+	 *
+	 * @return the summaries, sorted by activity ID.
+	 */
+	public TreeMap<String, LatencyHistogram.Stats> snapshot() {
+		TreeMap<String, LatencyHistogram.Stats> stats = new TreeMap<>();
+		for(Map.Entry<String, LatencyHistogram> entry : sessionTasks.entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return stats;
+	}
 
-	private static class RunningTask {
+	/**
+	 * Summarise the timings of every activity as readable lines, one per activity.
+	 *
+	 * @return the lines.
+	 */
+	public ArrayList<String> export() {
+		ArrayList<String> lines = new ArrayList<>();
+		for(Map.Entry<String, LatencyHistogram.Stats> entry : snapshot().entrySet()) {
+			LatencyHistogram.Stats s = entry.getValue();
+			lines.add(String.format("[%s] %s: count=%d mean=%s p50=%s p90=%s p99=%s p99.9=%s max=%s",
+					id, entry.getKey(), s.count, millis(s.mean), millis(s.p50), millis(s.p90), millis(s.p99), millis(s.p999), millis(s.max)));
+		}
+		return lines;
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3fms", nanos / 1000000.0);
+	}
 
-		public final long creationTime;
-		public final String id;
+	/**
+	 * Forget all timings.
+	 */
+	public void reset() {
+		sessionTasks.clear();
+	}
 
-		RunningTask(String id) {
+	/**
+	 * An activity being timed. Closing it stops the timer.
+	 */
+	public static final class Span implements AutoCloseable {
+
+		private final Profiler profiler;
+
+		private final String id;
+
+		private final long start = System.nanoTime();
+
+		private Span(Profiler profiler, String id) {
+			this.profiler = profiler;
 			this.id = id;
-			creationTime = System.currentTimeMillis();
+		}
+
+		/**
+		 * Stop timing. Must be called on the thread that started the span.
+		 */
+		@Override
+		public void close() {
+			if(profiler.activeTasks.get().removeLastOccurrence(this)) profiler.finish(this);
 		}
 
 	}
@@ -0,0 +1,306 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A log file that rolls over once it reaches a certain size or age. The active segment is always
+ * called name.0.log; rolled segments are renamed after the time they were started and gzipped on
+ * a background thread, and the oldest are deleted once there are too many of them or they take up
+ * too much space.
+ * <p>
+ * Not thread safe, the AsyncLogAppender only uses it from one thread at a time.
+ *
+ * @author Ned Hyett
+ */
+final class RollingLogFile {
+
+	/**
+	 * How much of the file is mapped at a time in mapped mode.
+	 */
+	private static final int MAP_CHUNK = 1 << 20;
+
+	/**
+	 * How long to keep appending to a segment that could not be rolled before trying again.
+	 */
+	private static final long ROLL_RETRY = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Compresses and prunes rolled segments. Shared by every log file.
+	 */
+	private static final ExecutorService compressor = Executors.newSingleThreadExecutor((r) -> {
+		Thread t = new Thread(r, "Crimson Log Compressor");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final File directory;
+
+	private final String name;
+
+	private final long maxSize;
+
+	private final long interval;
+
+	private final int maxFiles;
+
+	private final long maxBytes;
+
+	private final boolean mapped;
+
+	private FileChannel channel;
+
+	/**
+	 * The mapped window of the active segment in mapped mode.
+	 */
+	private MappedByteBuffer map;
+
+	/**
+	 * Bytes written to the active segment.
+	 */
+	private long size;
+
+	/**
+	 * When the active segment was started.
+	 */
+	private long started;
+
+	/**
+	 * When the active segment has to be rolled, regardless of size.
+	 */
+	private long nextRoll;
+
+	/**
+	 * No roll is attempted before this time, after one has failed.
+	 */
+	private long retryAt = 0;
+
+	/**
+	 * Open the log file. An existing active segment left over from a previous run is rolled first.
+	 *
+	 * @param directory the directory to keep the log files in.
+	 * @param name      the base name of the log files.
+	 * @param maxSize   roll once the active segment reaches this many bytes, or 0 to ignore size.
+	 * @param interval  roll at every multiple of this many milliseconds (counted from local midnight),
+	 *                  or 0 to ignore time.
+	 * @param maxFiles  the most rolled segments to keep, or 0 for no limit.
+	 * @param maxBytes  the most space rolled segments may use, or 0 for no limit.
+	 * @param mapped    write the active segment through a memory mapping instead of plain writes.
+	 *                  This is faster, but the file is padded with zeroes up to the next MiB until
+	 *                  it is closed, so a crash leaves the padding in place.
+	 *
+	 * @throws IOException if the file could not be opened.
+	 */
+	RollingLogFile(File directory, String name, long maxSize, long interval, int maxFiles, long maxBytes, boolean mapped) throws IOException {
+		this.directory = directory;
+		this.name = name;
+		this.maxSize = maxSize;
+		this.interval = interval;
+		this.maxFiles = maxFiles;
+		this.maxBytes = maxBytes;
+		this.mapped = mapped;
+		File active = active();
+		if(active.length() > 0) {
+			try {
+				archive(active, active.lastModified());
+			} catch(IOException ignored) {
+				//Carry on appending to it.
+			}
+		}
+		open(System.currentTimeMillis());
+	}
+
+	/**
+	 * Append to the log, rolling first if the active segment is full or too old.
+	 *
+	 * @param bytes the bytes to write.
+	 * @param now   the current time.
+	 *
+	 * @throws IOException if the write failed.
+	 */
+	void write(ByteBuffer bytes, long now) throws IOException {
+		if(channel == null) {
+			open(now);
+		} else if(now >= retryAt && ((maxSize > 0 && size > 0 && size + bytes.remaining() > maxSize) || (interval > 0 && now >= nextRoll))) {
+			roll(now);
+		}
+		size += bytes.remaining();
+		if(!mapped) {
+			while(bytes.hasRemaining()) channel.write(bytes);
+			return;
+		}
+		while(bytes.hasRemaining()) {
+			if(!map.hasRemaining()) {
+				map = channel.map(FileChannel.MapMode.READ_WRITE, size - bytes.remaining(), MAP_CHUNK);
+			}
+			int count = Math.min(bytes.remaining(), map.remaining());
+			ByteBuffer slice = bytes.duplicate();
+			slice.limit(slice.position() + count);
+			map.put(slice);
+			bytes.position(bytes.position() + count);
+		}
+	}
+
+	/**
+	 * Close the active segment now and start a new one. If the segment can't be moved out of the
+	 * way, logging carries on appending to it and the roll is tried again a minute later.
+	 *
+	 * @param now the current time.
+	 *
+	 * @throws IOException if the new segment could not be opened.
+	 */
+	void roll(long now) throws IOException {
+		closeChannel();
+		try {
+			archive(active(), started);
+			retryAt = 0;
+		} catch(IOException ex) {
+			retryAt = now + ROLL_RETRY;
+		}
+		open(now);
+	}
+
+	/**
+	 * Close the active segment. It is left in place and will be rolled on the next start.
+	 */
+	void close() {
+		try {
+			closeChannel();
+		} catch(IOException ignored) {}
+	}
+
+	private File active() {
+		return new File(directory, name + ".0.log");
+	}
+
+	private void open(long now) throws IOException {
+		channel = FileChannel.open(active().toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		size = channel.size();
+		channel.position(size);
+		started = now;
+		if(interval > 0) {
+			long offset = TimeZone.getDefault().getOffset(now);
+			nextRoll = ((now + offset) / interval + 1) * interval - offset;
+		}
+		if(mapped) {
+			map = channel.map(FileChannel.MapMode.READ_WRITE, size, MAP_CHUNK);
+		}
+	}
+
+	private void closeChannel() throws IOException {
+		if(channel == null) return;
+		try {
+			if(mapped) {
+				map.force();
+				map = null;
+				channel.truncate(size); //Cut off the unused part of the last mapped chunk.
+			}
+		} finally {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Move a finished segment out of the way and queue it to be compressed.
+	 */
+	private void archive(File segment, long time) throws IOException {
+		String stamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss-SSS").format(new Date(time));
+		File target = new File(directory, name + "." + stamp + ".log");
+		for(int i = 1; target.exists() || new File(target.getPath() + ".gz").exists(); i++) {
+			target = new File(directory, name + "." + stamp + "-" + i + ".log");
+		}
+		if(!segment.renameTo(target)) throw new IOException("Could not rename " + segment + " to " + target);
+		final File rolled = target;
+		compressor.execute(() -> {
+			compress(rolled);
+			prune();
+		});
+	}
+
+	private static void compress(File segment) {
+		File gz = new File(segment.getPath() + ".gz");
+		try(InputStream in = Files.newInputStream(segment.toPath());
+			OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz.toPath()), 1 << 16)) {
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+		} catch(IOException ex) {
+			gz.delete(); //Keep the uncompressed segment rather than a broken archive.
+			return;
+		}
+		gz.setLastModified(segment.lastModified());
+		segment.delete();
+	}
+
+	/**
+	 * Delete the oldest rolled segments until the retention limits are met.
+	 */
+	private void prune() {
+		if(maxFiles <= 0 && maxBytes <= 0) return;
+		String prefix = name + ".";
+		File[] found = directory.listFiles((dir, file) -> file.startsWith(prefix) && !file.equals(name + ".0.log")
+				&& (file.endsWith(".log.gz") || file.endsWith(".log")) && Character.isDigit(file.charAt(prefix.length())));
+		if(found == null) return;
+		Arrays.sort(found, Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+		ArrayList<File> segments = new ArrayList<>(Arrays.asList(found));
+		long total = 0;
+		for(File f : segments) total += f.length();
+		while(!segments.isEmpty() && ((maxFiles > 0 && segments.size() > maxFiles) || (maxBytes > 0 && total > maxBytes))) {
+			File oldest = segments.remove(0);
+			total -= oldest.length();
+			oldest.delete();
+		}
+	}
+
+	/**
+	 * Wait for queued compression to finish. Only used at shutdown.
+	 */
+	static void awaitCompression(long timeout) {
+		try {
+			compressor.submit(() -> {}).get(timeout, TimeUnit.MILLISECONDS);
+		} catch(Exception ignored) {}
+	}
+
+}
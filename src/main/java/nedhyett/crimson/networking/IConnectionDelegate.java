@@ -29,8 +29,9 @@ import java.net.Socket;
 /**
  * Used in conjunction with the ServerSocketListener. Called when a new connection has been made.
  * <p>
- * Note: handleConnection will be called in a new thread. This is to allow the listener to continue listening for new
- * connections instead of waiting until the current request has completed.
+ * Note: handleConnection will be called in a new thread (or on the listener's executor, if it has one). This is to
+ * allow the listener to continue listening for new connections instead of waiting until the current request has
+ * completed.
  *
  * @author Ned Hyett
  */
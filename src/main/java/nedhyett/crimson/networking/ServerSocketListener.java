@@ -29,6 +29,8 @@ import nedhyett.crimson.logging.CrimsonLog;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Plug-n-play system to create a standard network server.
@@ -40,6 +42,11 @@ public class ServerSocketListener extends Thread {
 	private final ServerSocket socket;
 	private final IConnectionDelegate delegate;
 
+	/**
+	 * Runs the delegate for each connection, or null to start a new thread for each one.
+	 */
+	private final Executor executor;
+
 	/**
 	 * Create a new listener
 	 *
@@ -49,9 +56,37 @@ public class ServerSocketListener extends Thread {
 	 * @throws IOException
 	 */
 	public ServerSocketListener(int port, IConnectionDelegate delegate) throws IOException {
-		socket = new ServerSocket(port);
+		this(port, 50, null, delegate);
+	}
+
+	/**
+	 * Create a new listener that hands connections to an executor instead of starting a thread for each one.
+	 * Connections the executor rejects are closed straight away.
+	 *
+	 * @param port     the port to listen for connections on
+	 * @param backlog  the most connections the OS will queue before they are accepted
+	 * @param executor the executor to run the delegate on, or null to start a new thread per connection
+	 * @param delegate the delegate for the server.
+	 *
+	 * @throws IOException
+	 */
+	public ServerSocketListener(int port, int backlog, Executor executor, IConnectionDelegate delegate) throws IOException {
+		this(new ServerSocket(port, backlog), executor, delegate);
+	}
+
+	/**
+	 * Create a new listener on a server socket that is already bound, for example one opened through a
+	 * ServerSocketChannel so that accepted sockets have channels.
+	 *
+	 * @param socket   the bound server socket to accept connections from
+	 * @param executor the executor to run the delegate on, or null to start a new thread per connection
+	 * @param delegate the delegate for the server.
+	 */
+	public ServerSocketListener(ServerSocket socket, Executor executor, IConnectionDelegate delegate) {
+		this.socket = socket;
 		this.delegate = delegate;
-		this.setName("ServerSocketListener on port " + port);
+		this.executor = executor;
+		this.setName("ServerSocketListener on port " + socket.getLocalPort());
 		this.setDaemon(false);
 	}
 
@@ -60,6 +95,21 @@ public class ServerSocketListener extends Thread {
 		try {
 			while(!this.isInterrupted()) {
 				final Socket client = socket.accept();
+				if(executor != null) {
+					try {
+						executor.execute(() -> {
+							try {
+								delegate.handleConnection(client);
+							} catch(Exception e) {
+								e.printStackTrace();
+							}
+						});
+					} catch(RejectedExecutionException e) {
+						CrimsonLog.warning("Too many connections on port %s, dropping %s", socket.getLocalPort(), client.getInetAddress().getHostAddress());
+						client.close();
+					}
+					continue;
+				}
 				Thread t = new Thread() {
 
 					@Override
@@ -77,6 +127,7 @@ public class ServerSocketListener extends Thread {
 				t.start(); //Put the delegate in a new thread to make sure that we can continue accepting connections.
 			}
 		} catch(Exception e) {
+			if(socket.isClosed()) return; //Closed on purpose.
 			CrimsonLog.critical("Exception in ServerSocketListener on port %s!", socket.getLocalPort());
 			CrimsonLog.critical(e);
 		} finally {
@@ -89,6 +140,17 @@ public class ServerSocketListener extends Thread {
 		}
 	}
 
+	/**
+	 * Stop listening. Connections that have already been accepted are not affected.
+	 */
+	public void close() {
+		this.interrupt();
+		try {
+			socket.close();
+		} catch(IOException ignored) {
+		}
+	}
+
 	@Override
 	protected void finalize() throws Throwable {
 		super.finalize();
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes everything written to it with HTTP/1.1 chunked transfer encoding. Small writes are gathered into chunks
+ * of up to 8 KiB; writes that are larger than that go out as a chunk of their own without being copied.
+ *
+ * @author Ned Hyett
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+	private static final byte[] CRLF = {'\r', '\n'};
+
+	private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+	private final OutputStream out;
+
+	private final byte[] buffer = new byte[8192];
+
+	private int count = 0;
+
+	private boolean finished = false;
+
+	/**
+	 * Create a new ChunkedOutputStream.
+	 *
+	 * @param out the stream to write the encoded chunks to.
+	 */
+	public ChunkedOutputStream(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if(finished) throw new IOException("Stream already finished!");
+		if(count == buffer.length) writeBuffer();
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(finished) throw new IOException("Stream already finished!");
+		if(len >= buffer.length) {
+			writeBuffer();
+			writeChunk(b, off, len);
+			return;
+		}
+		if(len > buffer.length - count) writeBuffer();
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	/**
+	 * Send whatever has been gathered so far as a chunk and flush the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeBuffer();
+		out.flush();
+	}
+
+	/**
+	 * Send the last chunk. The underlying stream is left open so the connection can be used again.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if(finished) return;
+		writeBuffer();
+		out.write(LAST_CHUNK);
+		finished = true;
+	}
+
+	/**
+	 * Same as {@link #finish()}.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+
+	private void writeBuffer() throws IOException {
+		if(count == 0) return;
+		writeChunk(buffer, 0, count);
+		count = 0;
+	}
+
+	private void writeChunk(byte[] b, int off, int len) throws IOException {
+		if(len == 0) return; //A zero length chunk would end the body.
+		out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+		out.write(CRLF);
+		out.write(b, off, len);
+		out.write(CRLF);
+	}
+
+}
@@ -37,8 +37,11 @@ public enum HttpMethod {
 	UNKNOWN;
 
 	public static HttpMethod getMethod(String string) {
-		HttpMethod method = valueOf(string);
-		return (method != null) ? method : UNKNOWN;
+		try {
+			return valueOf(string);
+		} catch(IllegalArgumentException ex) {
+			return UNKNOWN;
+		}
 	}
 
 }
@@ -27,9 +27,11 @@ package nedhyett.crimson.networking.http;
 import nedhyett.crimson.networking.http.server.HttpQueryData;
 import nedhyett.crimson.utility.StringUtils;
 
-import java.util.HashMap;
+import java.io.Flushable;
+import java.io.IOException;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Parses HTTP requests for the HttpServer.
@@ -60,7 +62,7 @@ public class HttpRequest {
 	/**
 	 * The raw header lines that are sent to the server.
 	 */
-	private final HashMap<String, String> rawHeaders = new HashMap<>();
+	private final TreeMap<String, String> rawHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
 	/**
 	 * The expected content length.
@@ -72,6 +74,11 @@ public class HttpRequest {
 	 */
 	public HttpQueryData queryData = null;
 
+	/**
+	 * Sends the responses to earlier requests on the connection that the server is still holding back.
+	 */
+	private Flushable pendingOutput = null;
+
 	public HttpRequest(HttpMethod method, String page) {
 		this.method = method;
 		this.page = page;
@@ -79,8 +86,10 @@ public class HttpRequest {
 
 	public HttpRequest(List<String> requestData) {
 		for(int i = 1; i < requestData.size(); i++) {
-			String[] split = requestData.get(i).split(": ");
-			rawHeaders.put(split[0], split[1]);
+			String header = requestData.get(i);
+			int colon = header.indexOf(':');
+			if(colon <= 0) continue;
+			rawHeaders.put(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
 		}
 		method = HttpMethod.getMethod(requestData.get(0).split(" ")[0]);
 		String localPage = requestData.get(0).split(" ")[1].replace("%20", " "); //TODO: Make this more robust
@@ -93,7 +102,8 @@ public class HttpRequest {
 			updateGetData("");
 		}
 		rawPage = localPage;
-		protocol = requestData.get(0).split(" ")[0];
+		String[] requestLine = requestData.get(0).split(" ");
+		protocol = (requestLine.length > 2) ? requestLine[2] : "HTTP/1.0";
 		if(hasHeader("Content-Length") && StringUtils.isNumber(getHeader("Content-Length"))) {
 			contentLength = Integer.parseInt(getHeader("Content-Length"));
 		} else {
@@ -113,23 +123,48 @@ public class HttpRequest {
 		this.queryData = new HttpQueryData(new String(data));
 	}
 
+	/**
+	 * Check if the client wants the connection kept open after this request. HTTP/1.1 connections stay open unless
+	 * the client asks for them to be closed, HTTP/1.0 connections only if the client asks for it.
+	 *
+	 * @return
+	 */
+	public boolean wantsKeepAlive() {
+		String connection = getHeader("Connection");
+		if("HTTP/1.1".equals(protocol)) return connection == null || !connection.equalsIgnoreCase("close");
+		return connection != null && connection.equalsIgnoreCase("keep-alive");
+	}
+
 	public Set<String> getHeaderKeys() {
 		return rawHeaders.keySet();
 	}
 
 	public boolean hasHeader(String key) {
-		for(String s : rawHeaders.keySet()) {
-			if(s.equalsIgnoreCase(key)) return true;
-		}
-		return false;
+		return rawHeaders.containsKey(key);
 	}
 
 	public String getHeader(String key) {
-		if(!hasHeader(key)) return null;
-		for(String s : rawHeaders.keySet()) {
-			if(s.equalsIgnoreCase(key)) return rawHeaders.get(s);
-		}
-		return null;
+		return rawHeaders.get(key);
+	}
+
+	/**
+	 * Called by the server. Responses to pipelined requests are written out together, so some can still be waiting
+	 * to be sent when this request is handled.
+	 *
+	 * @param pendingOutput what sends them.
+	 */
+	public void setPendingOutput(Flushable pendingOutput) {
+		this.pendingOutput = pendingOutput;
+	}
+
+	/**
+	 * Send the responses to earlier requests on the connection that haven't gone out yet. A provider that takes the
+	 * connection over (see {@link HttpResponse#detached()}) has to call this before it writes anything to the socket.
+	 *
+	 * @throws IOException
+	 */
+	public void flushPendingOutput() throws IOException {
+		if(pendingOutput != null) pendingOutput.flush();
 	}
 
 }
@@ -25,26 +25,57 @@
 package nedhyett.crimson.networking.http;
 
 import nedhyett.crimson.logging.CrimsonLog;
+import nedhyett.crimson.utility.StreamUtils;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
  * Represents and constructs a response to send to the client.
+ * <p>
+ * Small bodies can be built up in memory by writing to the response. Larger ones should be handed over with one of
+ * the setBody methods instead, so they are streamed to the client when the response is written out: files are sent
+ * with {@link FileChannel#transferTo}, and bodies of unknown length are sent with chunked transfer encoding.
  *
  * @author Ned Hyett
  */
 public class HttpResponse extends OutputStream {
 
+	/**
+	 * The most of a file sent to the channel between flushes of the stream.
+	 */
+	private static final long TRANSFER_PIECE = 64 * 1024;
+
 	public static HttpResponse createOneLiner(String text) {
 		HttpResponse response = new HttpResponse();
 		response.addResponseBodyLine(text);
 		return response;
 	}
 
+	/**
+	 * Create a response that tells the server the provider has taken the connection over (for example to stream
+	 * events to it). The server writes nothing more and leaves the socket alone; closing it is up to the provider.
+	 * Call {@link HttpRequest#flushPendingOutput()} before writing to the socket, so that responses to earlier
+	 * pipelined requests go out first.
+	 *
+	 * @return
+	 */
+	public static HttpResponse detached() {
+		HttpResponse response = new HttpResponse();
+		response.detached = true;
+		return response;
+	}
+
 	public HttpStatusCodes code;
 
 	/**
@@ -59,6 +90,32 @@ public class HttpResponse extends OutputStream {
 	 */
 	private final ByteArrayOutputStream response_body = new ByteArrayOutputStream();
 
+	/**
+	 * A file region to send as the body instead of response_body.
+	 */
+	private FileChannel body_file;
+	private long body_file_position;
+
+	/**
+	 * Bytes to send as the body instead of response_body. Not copied, so they must not change.
+	 */
+	private byte[] body_bytes;
+
+	/**
+	 * A stream to send as the body instead of response_body.
+	 */
+	private InputStream body_stream;
+
+	/**
+	 * Writes the body instead of response_body.
+	 */
+	private IResponseBodyWriter body_writer;
+
+	/**
+	 * The length of body_file or body_stream, -1 if unknown.
+	 */
+	private long body_length = -1;
+
 	/**
 	 * Indicates that the header/status code has not been written. Prevents the creation of response data.
 	 */
@@ -69,6 +126,11 @@ public class HttpResponse extends OutputStream {
 	 */
 	private boolean written_out = false;
 
+	/**
+	 * Indicates that the response was already sent by whoever created it.
+	 */
+	private boolean detached = false;
+
 	public HttpResponse() {
 		this(HttpStatusCodes._200);
 	}
@@ -165,6 +227,80 @@ public class HttpResponse extends OutputStream {
 		return response_body.toByteArray();
 	}
 
+	/**
+	 * Send an array as the body without copying it. The array must not be changed afterwards, which makes this
+	 * suitable for content that is shared between responses, such as cached files.
+	 *
+	 * @param bytes
+	 */
+	public void setBody(byte[] bytes) {
+		clearResponse();
+		body_bytes = bytes;
+	}
+
+	/**
+	 * Send a file as the body. The file is sent straight from the page cache when the response is written out, and
+	 * closed afterwards.
+	 *
+	 * @param file
+	 *
+	 * @throws IOException if the file could not be opened.
+	 */
+	public void setBody(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		setBody(channel, 0, channel.size());
+	}
+
+	/**
+	 * Send part of a file as the body. The channel is closed once the response has been written out.
+	 *
+	 * @param channel
+	 * @param position where in the file the body starts
+	 * @param length   the length of the body
+	 */
+	public void setBody(FileChannel channel, long position, long length) {
+		clearResponse();
+		body_file = channel;
+		body_file_position = position;
+		body_length = length;
+	}
+
+	/**
+	 * Stream the body from an InputStream, which is read (up to length bytes, if given) and closed when the response
+	 * is written out. A stream that ends short of length fails the response, as the client is already waiting for more.
+	 *
+	 * @param in
+	 * @param length the number of bytes the stream will give, or -1 if not known
+	 */
+	public void setBody(InputStream in, long length) {
+		clearResponse();
+		body_stream = in;
+		body_length = length;
+	}
+
+	/**
+	 * Let a writer produce the body while the response is written out. The length isn't known up front, so the body
+	 * is sent chunked.
+	 *
+	 * @param writer
+	 */
+	public void setBody(IResponseBodyWriter writer) {
+		clearResponse();
+		body_writer = writer;
+	}
+
+	/**
+	 * Get the length of the body.
+	 *
+	 * @return the length, or -1 if it won't be known until the body has been sent.
+	 */
+	public long getContentLength() {
+		if(body_bytes != null) return body_bytes.length;
+		if(body_file != null || body_stream != null) return body_length;
+		if(body_writer != null) return -1;
+		return response_body.size();
+	}
+
 	@Override
 	public void write(byte[] b) throws IOException {
 		response_body.write(b);
@@ -175,11 +311,34 @@ public class HttpResponse extends OutputStream {
 		response_body.write(b);
 	}
 
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		response_body.write(b, off, len);
+	}
+
 	/**
 	 * Clear the response body.
 	 */
 	public void clearResponse() {
 		response_body.reset();
+		close();
+		body_bytes = null;
+		body_writer = null;
+		body_length = -1;
+	}
+
+	/**
+	 * Close the file or stream the body was going to be sent from. Called once the response has been written out.
+	 */
+	@Override
+	public void close() {
+		try {
+			if(body_file != null) body_file.close();
+			if(body_stream != null) body_stream.close();
+		} catch(IOException ignored) {
+		}
+		body_file = null;
+		body_stream = null;
 	}
 
 	public void clearHead() {
@@ -187,12 +346,50 @@ public class HttpResponse extends OutputStream {
 		headless = true;
 	}
 
+	/**
+	 * Check if this response was already sent by whoever created it.
+	 *
+	 * @return
+	 */
+	public boolean isDetached() {
+		return detached;
+	}
+
+	/**
+	 * Check if this response asks for the connection to be closed.
+	 *
+	 * @return
+	 */
+	public boolean closesConnection() {
+		String connection = getResponseHeader("Connection");
+		return connection != null && connection.equalsIgnoreCase("close");
+	}
+
+	/**
+	 * Get the value of a response header.
+	 *
+	 * @param key The key to look for, ignoring case
+	 *
+	 * @return the value, or null if the header has not been added.
+	 */
+	public String getResponseHeader(String key) {
+		for(int i = headless ? 0 : 1; i < headers.size(); i++) {
+			String header = headers.get(i);
+			if(header.length() > key.length() && header.charAt(key.length()) == ':' && header.regionMatches(true, 0, key, 0, key.length())) {
+				return header.substring(key.length() + 1).trim();
+			}
+		}
+		return null;
+	}
+
 	public void writeOutHead(OutputStream out) throws IOException {
-		for(String header : headers) out.write((header + "\r\n").getBytes());
+		StringBuilder head = new StringBuilder(256);
+		for(String header : headers) head.append(header).append("\r\n");
 //		for (Cookie cookie : cookies) {
 //			cookie.writeOut(out);
 //		}
-		out.write("\r\n".getBytes());
+		head.append("\r\n");
+		out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
 	}
 
 
@@ -204,12 +401,98 @@ public class HttpResponse extends OutputStream {
 	 * @throws IOException
 	 */
 	public void writeOut(OutputStream out) throws IOException {
+		writeOut(out, null, false, true, false);
+	}
+
+	/**
+	 * Write out this response to the provided OutputStream, adding the Content-Length and Connection headers if
+	 * they have not been set. A body of unknown length is sent close-delimited.
+	 *
+	 * @param out       The OutputStream to write this response to.
+	 * @param keepAlive true if the connection will be kept open for another request.
+	 * @param body      false to leave out the body (for HEAD requests).
+	 *
+	 * @throws IOException
+	 */
+	public void writeOut(OutputStream out, boolean keepAlive, boolean body) throws IOException {
+		writeOut(out, null, keepAlive, body, false);
+	}
+
+	/**
+	 * Write out this response, adding the Content-Length (or Transfer-Encoding) and Connection headers if they have
+	 * not been set. If the body's length isn't known and it can't be sent chunked, the end of the body is marked by
+	 * closing the connection, and the response says so in its Connection header. Check {@link #closesConnection()}
+	 * afterwards.
+	 * <p>
+	 * Files are sent to the channel in pieces, and out is flushed before each one, so a stream that gives up on
+	 * stalled writes can tell that the transfer is still moving.
+	 *
+	 * @param out       The OutputStream to write this response to.
+	 * @param channel   The channel underneath out, to send files to directly. May be null.
+	 * @param keepAlive true if the connection will be kept open for another request.
+	 * @param body      false to leave out the body (for HEAD requests).
+	 * @param chunked   true if the client understands chunked transfer encoding (HTTP/1.1).
+	 *
+	 * @throws IOException
+	 */
+	public void writeOut(OutputStream out, WritableByteChannel channel, boolean keepAlive, boolean body, boolean chunked) throws IOException {
 		if(written_out) throw new IllegalStateException("Already written out the response!");
 		if(headless) throw new IllegalStateException("Can't write out headless response!");
-		writeOutHead(out);
-		if(response_body.toByteArray().length == 0 && code != HttpStatusCodes._200) code.generatePage(this);
-		out.write(response_body.toByteArray());
 		written_out = true;
+		try {
+			if(code == HttpStatusCodes._304 || code == HttpStatusCodes._204) {
+				//These never have a body, so they need nothing to mark its end.
+				if(getResponseHeader("Connection") == null) addResponseHeader("Connection", keepAlive ? "keep-alive" : "close");
+				writeOutHead(out);
+				return;
+			}
+			if(getContentLength() == 0 && code != HttpStatusCodes._200) code.generatePage(this);
+			long length = getContentLength();
+			chunked &= length < 0;
+			if(getResponseHeader("Content-Length") == null && getResponseHeader("Transfer-Encoding") == null) {
+				if(length >= 0) {
+					addResponseHeader("Content-Length", length);
+				} else if(chunked) {
+					addResponseHeader("Transfer-Encoding", "chunked");
+				} else {
+					keepAlive = false;
+				}
+			}
+			if(getResponseHeader("Connection") == null) addResponseHeader("Connection", keepAlive ? "keep-alive" : "close");
+			writeOutHead(out);
+			if(!body) return;
+			if(body_bytes != null) {
+				out.write(body_bytes);
+			} else if(body_file != null) {
+				transferFile(out, channel != null ? channel : Channels.newChannel(out));
+			} else if(body_stream != null || body_writer != null) {
+				OutputStream target = chunked ? new ChunkedOutputStream(out) : out;
+				if(body_stream != null && body_length >= 0) {
+					//The length has already been promised in Content-Length, so send exactly that much.
+					StreamUtils.copy(body_stream, target, body_length);
+				} else if(body_stream != null) {
+					StreamUtils.copy(body_stream, target);
+				} else {
+					body_writer.writeBody(target);
+				}
+				if(chunked) ((ChunkedOutputStream) target).finish();
+			} else {
+				response_body.writeTo(out);
+			}
+		} finally {
+			close();
+		}
+	}
+
+	private void transferFile(OutputStream out, WritableByteChannel target) throws IOException {
+		long position = body_file_position;
+		long end = body_file_position + body_length;
+		while(position < end) {
+			out.flush(); //Whatever is still buffered has to go out before the channel is written to.
+			long sent = body_file.transferTo(position, Math.min(end - position, TRANSFER_PIECE), target);
+			if(sent <= 0 && position >= body_file.size()) throw new IOException("File shrank while it was being sent!");
+			position += sent;
+		}
 	}
 
 //	/**
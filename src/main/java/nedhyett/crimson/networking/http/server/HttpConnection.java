@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The state of one connection to an HttpServer, kept while it waits for its next request.
+ *
+ * @author Ned Hyett
+ */
+final class HttpConnection {
+
+	/**
+	 * The most written to the socket in one go, so that a slow but steady client keeps pushing the write deadline
+	 * back.
+	 */
+	private static final int WRITE_PIECE = 64 * 1024;
+
+	final Socket socket;
+
+	final SocketChannel channel;
+
+	final HttpRequestReader in;
+
+	final OutputStream out;
+
+	/**
+	 * The number of requests served so far.
+	 */
+	int served = 0;
+
+	/**
+	 * When the header that has only partly arrived was started, or 0 if there is none.
+	 */
+	long headerStarted = 0;
+
+	/**
+	 * When the connection is closed if nothing more arrives.
+	 */
+	long deadline;
+
+	/**
+	 * When the write to the socket in progress is given up on, or 0 if none is. Set before every write through out,
+	 * and by every flush of it, as that is what is done before writing to the channel directly.
+	 */
+	volatile long writeDeadline = 0;
+
+	private final int writeTimeout;
+
+	/**
+	 * Wrap a connection.
+	 *
+	 * @param socket
+	 * @param writeTimeout how long a write may block, in milliseconds.
+	 *
+	 * @throws IOException
+	 */
+	HttpConnection(Socket socket, int writeTimeout) throws IOException {
+		this.socket = socket;
+		this.channel = socket.getChannel();
+		this.writeTimeout = writeTimeout;
+		this.in = new HttpRequestReader(socket.getInputStream());
+		this.out = new BufferedOutputStream(new FilterOutputStream(socket.getOutputStream()) {
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				while(len > 0) {
+					int piece = Math.min(len, WRITE_PIECE);
+					writeDeadline = System.currentTimeMillis() + writeTimeout;
+					out.write(b, off, piece);
+					off += piece;
+					len -= piece;
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				writeDeadline = System.currentTimeMillis() + writeTimeout;
+				out.flush();
+			}
+
+		}, 8192);
+	}
+
+	/**
+	 * Mark that nothing is being written any more.
+	 */
+	void written() {
+		writeDeadline = 0;
+	}
+
+	void close() {
+		try {
+			socket.close();
+		} catch(IOException ignored) {
+		}
+	}
+
+}
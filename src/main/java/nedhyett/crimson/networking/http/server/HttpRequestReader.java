@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Reads requests off a connection through one buffer. The header is scanned for its end as bytes
+ * arrive, without going back over what has already been scanned, and anything read past the end
+ * of a request stays in the buffer for the next one, so pipelined requests cost nothing extra.
+ * Reads never wait for data that hasn't arrived, so a connection whose header comes in slowly can
+ * be set aside until there is more.
+ *
+ * @author Ned Hyett
+ */
+final class HttpRequestReader {
+
+	/**
+	 * Thrown when the request header is larger than MAX_HEADER.
+	 */
+	static final class HeaderTooLargeException extends IOException {
+
+		HeaderTooLargeException() {
+			super("Request header too large");
+		}
+
+	}
+
+	/**
+	 * The largest request header that will be accepted.
+	 */
+	static final int MAX_HEADER = 64 * 1024;
+
+	private final InputStream in;
+
+	private byte[] buffer = new byte[8192];
+
+	/**
+	 * Start of the unread data in buffer.
+	 */
+	private int position = 0;
+
+	/**
+	 * End of the data in buffer.
+	 */
+	private int limit = 0;
+
+	/**
+	 * Offset from position up to which the current header is known not to end. Kept relative, as fill moves the
+	 * data, and kept between calls so a header that arrives in pieces is only scanned once.
+	 */
+	private int scanned = 0;
+
+	/**
+	 * Set once the end of the stream has been reached between requests.
+	 */
+	private boolean closed = false;
+
+	HttpRequestReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Read the next request line and header lines, without waiting for data that hasn't arrived yet.
+	 *
+	 * @param ready true if the connection is known to have data waiting, in which case one read is made even if
+	 *              none is reported as available.
+	 *
+	 * @return the lines, or null if the rest of the header hasn't arrived yet or the connection was closed (or timed
+	 * out) between requests (see {@link #isClosed()}).
+	 *
+	 * @throws IOException if the connection fails part way through a header.
+	 */
+	ArrayList<String> readHead(boolean ready) throws IOException {
+		while(true) {
+			//Tolerate the stray blank lines some clients send between requests.
+			if(scanned == 0) {
+				while(position < limit && (buffer[position] == '\r' || buffer[position] == '\n')) position++;
+			}
+			for(; position + scanned + 3 < limit; scanned++) {
+				int i = position + scanned;
+				if(buffer[i + 3] != '\n') continue;
+				if(buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r') {
+					ArrayList<String> lines = split(position, i);
+					position = i + 4;
+					scanned = 0;
+					return lines;
+				}
+			}
+			if(limit - position >= MAX_HEADER) throw new HeaderTooLargeException();
+			if(!ready && in.available() == 0) return null;
+			ready = false;
+			if(!fill(position == limit)) {
+				if(position < limit) throw new IOException("Connection closed part way through the request header");
+				closed = true;
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Check if a further request has already been started in the buffer.
+	 *
+	 * @return true if there is unread data.
+	 */
+	boolean hasBuffered() {
+		return position < limit;
+	}
+
+	/**
+	 * Check if the connection was closed between requests.
+	 *
+	 * @return
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Read a request body.
+	 *
+	 * @param length the length of the body.
+	 *
+	 * @return the body.
+	 *
+	 * @throws IOException if the connection closes before the whole body has been read.
+	 */
+	byte[] readBody(int length) throws IOException {
+		byte[] body = new byte[length];
+		int buffered = Math.min(length, limit - position);
+		System.arraycopy(buffer, position, body, 0, buffered);
+		position += buffered;
+		for(int read = buffered; read < length; ) {
+			int count = in.read(body, read, length - read);
+			if(count == -1) throw new IOException("Connection closed part way through the request body");
+			read += count;
+		}
+		return body;
+	}
+
+	/**
+	 * Read past a request body without keeping it.
+	 *
+	 * @param length the length of the body.
+	 *
+	 * @throws IOException if the connection closes before the whole body has been read.
+	 */
+	void skipBody(int length) throws IOException {
+		int buffered = Math.min(length, limit - position);
+		position += buffered;
+		byte[] discard = null;
+		for(int left = length - buffered; left > 0; ) {
+			if(discard == null) discard = new byte[Math.min(left, 8192)];
+			int count = in.read(discard, 0, Math.min(left, discard.length));
+			if(count == -1) throw new IOException("Connection closed part way through the request body");
+			left -= count;
+		}
+	}
+
+	/**
+	 * Read more data into the buffer, moving unread data to the front or growing it as needed.
+	 *
+	 * @param idle true if waiting for a new request, in which case a timeout is a normal close.
+	 *
+	 * @return false at the end of the stream.
+	 */
+	private boolean fill(boolean idle) throws IOException {
+		if(position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		if(limit == buffer.length) {
+			byte[] grown = new byte[Math.min(buffer.length * 2, MAX_HEADER + 4)];
+			System.arraycopy(buffer, 0, grown, 0, limit);
+			buffer = grown;
+		}
+		int count;
+		try {
+			count = in.read(buffer, limit, buffer.length - limit);
+		} catch(SocketTimeoutException ex) {
+			if(idle) return false;
+			throw ex;
+		}
+		if(count == -1) return false;
+		limit += count;
+		return true;
+	}
+
+	/**
+	 * Split buffer[start, end) into lines, dropping the line endings.
+	 */
+	private ArrayList<String> split(int start, int end) {
+		ArrayList<String> lines = new ArrayList<>();
+		int lineStart = start;
+		for(int i = start; i < end; i++) {
+			if(buffer[i] != '\n') continue;
+			int lineEnd = (i > lineStart && buffer[i - 1] == '\r') ? i - 1 : i;
+			lines.add(new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1));
+			lineStart = i + 1;
+		}
+		lines.add(new String(buffer, lineStart, end - lineStart, StandardCharsets.ISO_8859_1));
+		return lines;
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server;
+
+import nedhyett.crimson.networking.http.HttpMethod;
+import nedhyett.crimson.networking.http.HttpRequest;
+import nedhyett.crimson.networking.http.HttpResponse;
+import nedhyett.crimson.networking.http.HttpStatusCodes;
+
+import java.net.Socket;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps request paths to providers with a trie of path segments, so finding the providers for a request costs the
+ * same however many are mounted.
+ * <p>
+ * A route is either a page ("/feeds/rss") or a mount point ending in "/*" ("/static/*"), which takes every page
+ * under it. Routes can be limited to one method; HEAD requests also go to GET routes. A request is offered to the
+ * page route for its path first, then to the mount points above it from the deepest up, and the first provider
+ * that accepts it (see {@link IHttpServerProvider#requestIsValid}) and gives a response other than a 404 answers
+ * it. Only the providers on the request's path are asked.
+ * <p>
+ * Routers are providers themselves, so they can be mounted in other routers or put behind an
+ * AuthenticationProvider. Paths are not rewritten on the way in, so a mounted router's routes are full paths.
+ *
+ * @author Ned Hyett
+ */
+public class HttpRouter implements IHttpServerProvider {
+
+	private static final class Node {
+
+		private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+
+		private volatile Routes page;
+
+		private volatile Routes mount;
+
+	}
+
+	/**
+	 * The providers for one route, by method. Replaced rather than changed, so lookups need no locking.
+	 */
+	private static final class Routes {
+
+		private final EnumMap<HttpMethod, IHttpServerProvider> methods;
+
+		private final IHttpServerProvider any;
+
+		private Routes(EnumMap<HttpMethod, IHttpServerProvider> methods, IHttpServerProvider any) {
+			this.methods = methods;
+			this.any = any;
+		}
+
+		private IHttpServerProvider get(HttpMethod method) {
+			IHttpServerProvider provider = methods.get(method);
+			if(provider == null && method == HttpMethod.HEAD) provider = methods.get(HttpMethod.GET);
+			return provider != null ? provider : any;
+		}
+
+		private Routes with(HttpMethod method, IHttpServerProvider provider) {
+			EnumMap<HttpMethod, IHttpServerProvider> copy = new EnumMap<>(HttpMethod.class);
+			if(methods != null) copy.putAll(methods);
+			if(method == null) return new Routes(copy, provider);
+			if(provider == null) {
+				copy.remove(method);
+			} else {
+				copy.put(method, provider);
+			}
+			return new Routes(copy, any);
+		}
+
+	}
+
+	private static final Routes EMPTY = new Routes(new EnumMap<>(HttpMethod.class), null);
+
+	private final Node root = new Node();
+
+	/**
+	 * Route requests for a path to a provider, whatever their method.
+	 *
+	 * @param path     a page, or a mount point ending in "/*"
+	 * @param provider
+	 */
+	public void add(String path, IHttpServerProvider provider) {
+		add(null, path, provider);
+	}
+
+	/**
+	 * Route requests for a path to a provider. A route for a method takes precedence over one for any method.
+	 *
+	 * @param method   the method to route, or null for any
+	 * @param path     a page, or a mount point ending in "/*"
+	 * @param provider
+	 */
+	public synchronized void add(HttpMethod method, String path, IHttpServerProvider provider) {
+		if(provider == null) throw new IllegalArgumentException("No provider to route " + path + " to!");
+		set(method, path, provider);
+	}
+
+	/**
+	 * Remove a route.
+	 *
+	 * @param method the method the route was added for, or null for any
+	 * @param path
+	 */
+	public synchronized void remove(HttpMethod method, String path) {
+		set(method, path, null);
+	}
+
+	/**
+	 * Route a request.
+	 *
+	 * @param request
+	 * @param data
+	 * @param socket
+	 *
+	 * @return the response, or null if no provider on the request's path answered it.
+	 *
+	 * @throws Exception
+	 */
+	public HttpResponse route(HttpRequest request, HttpQueryData data, Socket socket) throws Exception {
+		return route(root, request, data, socket, 0);
+	}
+
+	@Override
+	public boolean requestIsValid(HttpRequest request, Socket socket) {
+		return isValid(root, request, socket, 0);
+	}
+
+	@Override
+	public HttpResponse handle(HttpRequest request, HttpQueryData data, Socket s) throws Exception {
+		return route(request, data, s);
+	}
+
+	/**
+	 * Check if a provider answered a request, and let go of the response if it didn't.
+	 *
+	 * @param response
+	 *
+	 * @return
+	 */
+	static boolean isAnswered(HttpResponse response) {
+		if(response == null) return false;
+		if(response.code != HttpStatusCodes._404 || response.isDetached()) return true;
+		response.close();
+		return false;
+	}
+
+	private HttpResponse route(Node node, HttpRequest request, HttpQueryData data, Socket socket, int from) throws Exception {
+		String path = request.page;
+		int start = skipSlashes(path, from);
+		if(start == path.length()) {
+			HttpResponse response = offer(node.page, request, data, socket);
+			if(response != null) return response;
+		} else {
+			int end = segmentEnd(path, start);
+			Node child = node.children.get(path.substring(start, end));
+			if(child != null) {
+				HttpResponse response = route(child, request, data, socket, end);
+				if(response != null) return response;
+			}
+		}
+		return offer(node.mount, request, data, socket);
+	}
+
+	private boolean isValid(Node node, HttpRequest request, Socket socket, int from) {
+		String path = request.page;
+		int start = skipSlashes(path, from);
+		if(start == path.length()) {
+			if(isValid(node.page, request, socket)) return true;
+		} else {
+			int end = segmentEnd(path, start);
+			Node child = node.children.get(path.substring(start, end));
+			if(child != null && isValid(child, request, socket, end)) return true;
+		}
+		return isValid(node.mount, request, socket);
+	}
+
+	private static HttpResponse offer(Routes routes, HttpRequest request, HttpQueryData data, Socket socket) throws Exception {
+		if(routes == null) return null;
+		IHttpServerProvider provider = routes.get(request.method);
+		if(provider == null || !provider.requestIsValid(request, socket)) return null;
+		HttpResponse response = provider.handle(request, data, socket);
+		return isAnswered(response) ? response : null;
+	}
+
+	private static boolean isValid(Routes routes, HttpRequest request, Socket socket) {
+		if(routes == null) return false;
+		IHttpServerProvider provider = routes.get(request.method);
+		return provider != null && provider.requestIsValid(request, socket);
+	}
+
+	private void set(HttpMethod method, String path, IHttpServerProvider provider) {
+		boolean mount = path.endsWith("/*");
+		if(mount) path = path.substring(0, path.length() - 1);
+		Node node = root;
+		for(int start = skipSlashes(path, 0); start < path.length(); start = skipSlashes(path, start)) {
+			int end = segmentEnd(path, start);
+			node = node.children.computeIfAbsent(path.substring(start, end), (k) -> new Node());
+			start = end;
+		}
+		if(mount) {
+			node.mount = (node.mount != null ? node.mount : EMPTY).with(method, provider);
+		} else {
+			node.page = (node.page != null ? node.page : EMPTY).with(method, provider);
+		}
+	}
+
+	private static int skipSlashes(String path, int from) {
+		while(from < path.length() && path.charAt(from) == '/') from++;
+		return from;
+	}
+
+	private static int segmentEnd(String path, int start) {
+		int end = path.indexOf('/', start);
+		return end == -1 ? path.length() : end;
+	}
+
+}
@@ -30,45 +30,140 @@ import nedhyett.crimson.networking.ServerSocketListener;
 import nedhyett.crimson.networking.http.HttpMethod;
 import nedhyett.crimson.networking.http.HttpRequest;
 import nedhyett.crimson.networking.http.HttpResponse;
-import nedhyett.crimson.utility.ArrayUtils;
 import nedhyett.crimson.utility.GenericUtils;
 import nedhyett.crimson.logging.MiniLogger;
 import nedhyett.crimson.networking.http.HttpStatusCodes;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Implements a basic multithreaded HTTP server.
+ * Implements a basic multithreaded HTTP/1.1 server.
  * <p>
- * The server runs on one thread, and then each connection is handled in a separate thread so there is no delay.
- * It also means that if content is being streamed to a client, other clients can still connect to the server.
+ * The server accepts connections on one thread and hands each request to a bounded pool of workers, so if content is
+ * being streamed to a client, other clients can still connect to the server. Connections are kept alive between
+ * requests, and pipelined requests are answered in order, with their responses written out together. A connection
+ * that is waiting for a request (or for the rest of one) doesn't hold a worker: it is parked on a selector until it
+ * has more to read, so idle clients can't starve busy ones, and a client that stops reading its response is dropped
+ * once a write to it has been stuck for the write timeout, so it can't hold on to a worker either. Response bodies of
+ * unknown length are sent chunked, and files are sent straight to the socket's channel.
+ * <p>
+ * Requests are matched against the routes in {@link #getRouter()} first. Providers added with
+ * {@link #addProvider(IHttpServerProvider)} are asked afterwards, in the order they were added.
  *
  * @author Ned Hyett
  */
 public class HttpServer implements IConnectionDelegate, IProviderAcceptor {
 
-	private static final byte[] header_break = "\r\n\r\n".getBytes();
 	private static final MiniLogger log = CrimsonLog.spawnLogger("HttpServer");
 
-	private final ArrayList<IHttpServerProvider> providers = new ArrayList<>();
+	/**
+	 * How long, and for how many bytes, the rest of a rejected request is read before the connection is closed.
+	 */
+	private static final int LINGER_TIMEOUT = 2000;
+	private static final int MAX_LINGER_BYTES = 1 << 20;
+
+	private final HttpRouter router = new HttpRouter();
+
+	/**
+	 * Providers that aren't routed, each asked in turn if no route answers a request.
+	 */
+	private final CopyOnWriteArrayList<IHttpServerProvider> providers = new CopyOnWriteArrayList<>();
 	private final ArrayList<IRequestMangler> requestManglers = new ArrayList<>();
 
 	private final ServerSocketListener listener;
 
+	private final ThreadPoolExecutor workers;
+
+	private final IdleConnectionPoller poller;
+
 	/**
-	 * Create a HTTP server on the specified port.
+	 * How long a client has to send the whole header of a request, and how long a read of a request body may
+	 * block, in milliseconds.
+	 */
+	private volatile int requestTimeout = 15000;
+
+	/**
+	 * How long an open connection may sit idle between requests, in milliseconds.
+	 */
+	private volatile int keepAliveTimeout = 5000;
+
+	/**
+	 * How long a write to a client may block before the connection is closed, in milliseconds.
+	 */
+	private volatile int writeTimeout = 30000;
+
+	/**
+	 * The most requests served on one connection before it is closed.
+	 */
+	private volatile int maxKeepAliveRequests = 1000;
+
+	/**
+	 * The largest request body that is accepted, in bytes.
+	 */
+	private volatile int maxBodySize = 1 << 20;
+
+	/**
+	 * Create a HTTP server on the specified port, with 64 workers and an accept backlog of 128.
 	 *
 	 * @param port the port to bind to.
 	 *
 	 * @throws IOException
 	 */
 	public HttpServer(int port) throws IOException {
-		listener = new ServerSocketListener(port, this);
+		this(port, 64, 128);
 	}
 
+	/**
+	 * Create a HTTP server on the specified port.
+	 *
+	 * @param port    the port to bind to.
+	 * @param workers the most requests handled at once. Requests that arrive while every worker is busy wait in a
+	 *                queue of the same size, and their connections are closed once that is full.
+	 * @param backlog the accept backlog of the server socket.
+	 *
+	 * @throws IOException
+	 */
+	public HttpServer(int port, int workers, int backlog) throws IOException {
+		final AtomicInteger count = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(workers), (r) -> {
+			Thread t = new Thread(r, "HttpServer worker " + count.incrementAndGet() + " on port " + port);
+			t.setDaemon(true);
+			return t;
+		});
+		this.workers.allowCoreThreadTimeOut(true);
+		//Opened through a channel so that accepted sockets have one for FileChannel.transferTo.
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress(port), backlog);
+		poller = new IdleConnectionPoller("HttpServer poller on port " + port, this.workers, this::serve);
+		//Accepting only parks the connection, so it is done on the listener thread.
+		listener = new ServerSocketListener(server.socket(), Runnable::run, this);
+	}
+
+	/**
+	 * Get the router that requests are matched against before the providers added with addProvider.
+	 *
+	 * @return
+	 */
+	public HttpRouter getRouter() {
+		return router;
+	}
+
+	/**
+	 * Add a provider that is asked about every request that no route answers. Prefer routing providers with
+	 * {@link #getRouter()}, as every request that reaches these asks each of them in turn.
+	 *
+	 * @param provider
+	 */
 	@Override
 	public void addProvider(IHttpServerProvider provider) {
 		providers.add(provider);
@@ -97,10 +192,59 @@ public class HttpServer implements IConnectionDelegate, IProviderAcceptor {
 		requestManglers.remove(mangler);
 	}
 
+	/**
+	 * Set how long an open connection may sit idle between requests before it is closed.
+	 *
+	 * @param millis the timeout in milliseconds.
+	 */
+	public void setKeepAliveTimeout(int millis) {
+		this.keepAliveTimeout = millis;
+	}
+
+	/**
+	 * Set how long a client has to send the whole header of a request before its connection is closed. This is also
+	 * how long a read of a request body may block.
+	 *
+	 * @param millis the timeout in milliseconds.
+	 */
+	public void setRequestTimeout(int millis) {
+		this.requestTimeout = millis;
+	}
+
+	/**
+	 * Set how long a write to a client may block before its connection is closed, so that a client that stops reading
+	 * doesn't keep a worker. Applies to connections accepted afterwards.
+	 *
+	 * @param millis the timeout in milliseconds.
+	 */
+	public void setWriteTimeout(int millis) {
+		this.writeTimeout = millis;
+	}
+
+	/**
+	 * Set the most requests that are served on one connection before it is closed.
+	 *
+	 * @param requests the limit, 1 to disable keep-alive.
+	 */
+	public void setMaxKeepAliveRequests(int requests) {
+		this.maxKeepAliveRequests = requests;
+	}
+
+	/**
+	 * Set the largest request body that is accepted. Requests with a larger one are answered with 413 before any of
+	 * it is read.
+	 *
+	 * @param bytes the limit in bytes.
+	 */
+	public void setMaxBodySize(int bytes) {
+		this.maxBodySize = bytes;
+	}
+
 	/**
 	 * Start the HTTP Server.
 	 */
 	public void start() {
+		poller.start();
 		listener.start();
 	}
 
@@ -108,60 +252,164 @@ public class HttpServer implements IConnectionDelegate, IProviderAcceptor {
 	 * Stop the HTTP Server.
 	 */
 	public void stop() {
-		listener.interrupt();
+		listener.close();
+		poller.shutdown();
+		workers.shutdownNow();
 	}
 
 	@Override
 	public void handleConnection(Socket socket) throws Exception {
 		//log.debug("Connection from %s", socket.getInetAddress().getHostAddress());
-		InputStream in = socket.getInputStream();
-		OutputStream out = socket.getOutputStream();
+		HttpConnection connection;
+		try {
+			socket.setTcpNoDelay(true);
+			connection = new HttpConnection(socket, writeTimeout);
+		} catch(IOException e) {
+			socket.close();
+			return;
+		}
+		poller.park(connection, requestTimeout);
+	}
+
+	/**
+	 * Serve the requests a connection has waiting, then park it again. Runs on a worker once the poller has seen
+	 * data on the connection.
+	 *
+	 * @param connection
+	 */
+	private void serve(HttpConnection connection) {
+		Socket socket = connection.socket;
+		HttpRequestReader in = connection.in;
+		OutputStream out = connection.out;
+		boolean open = false;
 		try {
-			ArrayList<String> requestData = new ArrayList<>();
-
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			int time = GenericUtils.getSecondTime();
-			while(true) {
-				if(ArrayUtils.compareLast(baos.toByteArray(), header_break)) break;
-				if(new String(baos.toByteArray()).endsWith("\r\n\r\n")) break;
-				baos.write(in.read());
-				if(GenericUtils.getSecondTime() > (time + 15)) {
-					log.warning("Read timeout for " + socket.getInetAddress().getHostAddress() + " (" + new String(baos.toByteArray()) + ")");
+			socket.setSoTimeout(requestTimeout); //Only a safeguard, reads normally find their data already there.
+			for(boolean ready = true; ; ready = false) {
+				ArrayList<String> requestData;
+				try {
+					requestData = in.readHead(ready);
+				} catch(HttpRequestReader.HeaderTooLargeException ex) {
+					writeError(socket, out, HttpStatusCodes._431);
 					return;
 				}
-			}
-			Scanner headerScanner = new Scanner(new ByteArrayInputStream(new String(baos.toByteArray()).trim().getBytes()));
-			String line;
-			while(headerScanner.hasNextLine() && (line = headerScanner.nextLine()) != null) requestData.add(line);
-			HttpRequest request = new HttpRequest(requestData);
-			for(IRequestMangler mangler : requestManglers) mangler.mangle(request);
-			HttpResponse response = new HttpResponse(HttpStatusCodes._404);
-			if(request.method == HttpMethod.POST) {
-				byte[] buf = new byte[request.contentLength];
-				for(int i = 0; i < buf.length; i++) buf[i] = (byte) in.read();
-				request.updatePostData(buf);
-			}
-			for(IHttpServerProvider provider : providers) {
-				if(!provider.requestIsValid(request, socket)) continue;
-				HttpResponse response1 = provider.handle(request, request.getQueryData(), socket);
-				if(response1 != null && response1.code != HttpStatusCodes._404) {
-					response = response1;
-					break;
+				if(requestData == null) {
+					if(in.isClosed()) return;
+					flush(connection);
+					//Wait for the rest off the worker. A header that has started has to be finished within the request
+					//timeout of when it started, however slowly it arrives.
+					long now = System.currentTimeMillis();
+					if(in.hasBuffered()) {
+						if(connection.headerStarted == 0) connection.headerStarted = now;
+						long remaining = connection.headerStarted + requestTimeout - now;
+						if(remaining <= 0) return;
+						poller.park(connection, remaining);
+					} else {
+						poller.park(connection, connection.served == 0 ? requestTimeout : keepAliveTimeout);
+					}
+					open = true;
+					return;
+				}
+				connection.headerStarted = 0;
+				connection.served++;
+				HttpRequest request;
+				try {
+					request = new HttpRequest(requestData);
+				} catch(RuntimeException ex) {
+					writeError(socket, out, HttpStatusCodes._400);
+					return;
+				}
+				request.setPendingOutput(() -> flush(connection));
+				if(request.hasHeader("Transfer-Encoding")) {
+					//Chunked request bodies aren't supported, and the request can't be skipped without reading one.
+					writeError(socket, out, HttpStatusCodes._501);
+					return;
+				}
+				if(request.contentLength > maxBodySize) {
+					writeError(socket, out, HttpStatusCodes._413);
+					return;
+				}
+				if(request.method == HttpMethod.POST) {
+					request.updatePostData(request.contentLength > 0 ? in.readBody(request.contentLength) : new byte[0]);
+				} else if(request.contentLength > 0) {
+					in.skipBody(request.contentLength); //Nothing reads it, but it has to be got past to reach the next request.
+				}
+				boolean keepAlive = connection.served < maxKeepAliveRequests && request.wantsKeepAlive();
+				HttpResponse response = handle(request, socket);
+				if(response.isDetached()) {
+					poller.release(connection);
+					open = true; //A provider took over the socket.
+					return;
+				}
+				try {
+					response.writeOut(out, connection.channel, keepAlive, request.method != HttpMethod.HEAD, "HTTP/1.1".equals(request.protocol));
+				} catch(SocketException e) {
+					throw e;
+				} catch(IOException e) {
+					//Usually the client hanging up mid-body. The head has already gone out, so all that can be done is to
+					//drop the connection.
+					log.debug("Failed to send the response to %s: %s", request.rawPage, e);
+					return;
 				}
+				connection.written();
+				keepAlive &= !response.closesConnection();
+				//Held back while the next request is already here, so pipelined responses go out together.
+				if(!keepAlive || !in.hasBuffered()) flush(connection);
+				if(!keepAlive) return;
 			}
-			response.writeOut(out);
+		} catch(SocketException e) {
+			//The client went away.
 		} catch(Exception e) {
-			e.printStackTrace();
+			log.severe(e);
 			HttpResponse response = new HttpResponse(HttpStatusCodes._500);
 			response.addResponseHeader("Content-Type", "text/html");
 			response.addResponseBodyLine("Error while handling request!<br><br><br>Stack Trace:<br>");
 			for(String s : GenericUtils.pullException(e)) response.addResponseBodyLine(s + "<br>");
 			try {
-				response.writeOut(socket.getOutputStream());
+				response.writeOut(out);
+				out.flush();
 			} catch(Exception e1) {
 				// swallow
 			}
+		} finally {
+			if(!open) {
+				poller.release(connection);
+				connection.close();
+			}
+		}
+	}
+
+	private static void flush(HttpConnection connection) throws IOException {
+		connection.out.flush();
+		connection.written();
+	}
+
+	private HttpResponse handle(HttpRequest request, Socket socket) throws Exception {
+		for(IRequestMangler mangler : requestManglers) mangler.mangle(request);
+		HttpResponse response = router.route(request, request.getQueryData(), socket);
+		if(response != null) return response;
+		for(IHttpServerProvider provider : providers) {
+			if(!provider.requestIsValid(request, socket)) continue;
+			response = provider.handle(request, request.getQueryData(), socket);
+			if(HttpRouter.isAnswered(response)) return response;
 		}
-		socket.close();
+		return new HttpResponse(HttpStatusCodes._404);
 	}
+
+	private static void writeError(Socket socket, OutputStream out, HttpStatusCodes code) throws IOException {
+		new HttpResponse(code).writeOut(out, false, true);
+		out.flush();
+		//The rest of the request is still on its way. Closing with it unread would reset the connection, and the
+		//client could lose the response, so read and throw away what arrives for a moment first.
+		socket.shutdownOutput();
+		socket.setSoTimeout(LINGER_TIMEOUT);
+		InputStream in = socket.getInputStream();
+		byte[] buf = new byte[4096];
+		long discarded = 0;
+		int read;
+		try {
+			while(discarded < MAX_LINGER_BYTES && (read = in.read(buf)) != -1) discarded += read;
+		} catch(IOException ignored) {
+		}
+	}
+
 }
@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server;
+
+import nedhyett.crimson.logging.CrimsonLog;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Holds the connections of an HttpServer that are waiting for a request, so that they don't tie up a worker while
+ * they are idle. A single selector watches all of them; once one has something to read it is handed back to a
+ * worker, and one that stays quiet past its deadline is closed.
+ * <p>
+ * Connections that are with a worker are watched too: one whose client has stopped reading, so that a write to it
+ * has been stuck past its write deadline, is closed to free the worker.
+ *
+ * @author Ned Hyett
+ */
+final class IdleConnectionPoller extends Thread {
+
+	/**
+	 * How often deadlines are checked.
+	 */
+	private static final long SWEEP_INTERVAL = 1000;
+
+	private final Selector selector;
+
+	private final Executor workers;
+
+	private final Consumer<HttpConnection> handler;
+
+	/**
+	 * Connections waiting to be registered with the selector, which has to be done on this thread.
+	 */
+	private final ConcurrentLinkedQueue<HttpConnection> parking = new ConcurrentLinkedQueue<>();
+
+	private final ArrayList<HttpConnection> ready = new ArrayList<>();
+
+	/**
+	 * Connections that have been handed to a worker and not yet parked again or let go.
+	 */
+	private final Set<HttpConnection> serving = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean running = true;
+
+	/**
+	 * Create a poller.
+	 *
+	 * @param name    the name of the thread.
+	 * @param workers the executor to hand connections with data back to.
+	 * @param handler what the workers run for each of them.
+	 *
+	 * @throws IOException if the selector could not be opened.
+	 */
+	IdleConnectionPoller(String name, Executor workers, Consumer<HttpConnection> handler) throws IOException {
+		super(name);
+		this.setDaemon(true);
+		this.selector = Selector.open();
+		this.workers = workers;
+		this.handler = handler;
+	}
+
+	/**
+	 * Wait for a connection to have something to read. Safe to call from any thread.
+	 *
+	 * @param connection
+	 * @param timeout    how long to wait before closing it, in milliseconds.
+	 */
+	void park(HttpConnection connection, long timeout) {
+		serving.remove(connection);
+		connection.deadline = System.currentTimeMillis() + timeout;
+		try {
+			connection.channel.configureBlocking(false);
+		} catch(IOException e) {
+			connection.close();
+			return;
+		}
+		parking.add(connection);
+		selector.wakeup();
+		if(!running) connection.close();
+	}
+
+	/**
+	 * Stop watching a connection that a worker is done with without parking it, because it was closed or a provider
+	 * took it over.
+	 *
+	 * @param connection
+	 */
+	void release(HttpConnection connection) {
+		serving.remove(connection);
+	}
+
+	/**
+	 * Stop polling and close every waiting connection.
+	 */
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+		try {
+			while(running) {
+				selector.select(SWEEP_INTERVAL);
+				//The ready set is gone through whatever select returned, as keys left in it from the last round
+				//don't count towards the number.
+				for(SelectionKey key : selector.selectedKeys()) {
+					key.cancel();
+					ready.add((HttpConnection) key.attachment());
+				}
+				selector.selectedKeys().clear();
+				HttpConnection connection;
+				while((connection = parking.poll()) != null) {
+					try {
+						connection.channel.register(selector, SelectionKey.OP_READ, connection);
+					} catch(ClosedChannelException | CancelledKeyException e) {
+						connection.close();
+					}
+				}
+				long now = System.currentTimeMillis();
+				if(now >= nextSweep) {
+					for(SelectionKey key : selector.keys()) {
+						HttpConnection idle = (HttpConnection) key.attachment();
+						if(key.isValid() && now >= idle.deadline) {
+							key.cancel();
+							idle.close();
+						}
+					}
+					for(HttpConnection busy : serving) {
+						long writeDeadline = busy.writeDeadline;
+						if(writeDeadline != 0 && now >= writeDeadline) {
+							//Closing the socket makes the blocked write fail, which frees the worker.
+							CrimsonLog.debug("Write to %s stalled, closing it", busy.socket.getInetAddress().getHostAddress());
+							serving.remove(busy);
+							busy.close();
+						}
+					}
+					nextSweep = now + SWEEP_INTERVAL;
+				}
+				if(!ready.isEmpty()) dispatch();
+			}
+		} catch(IOException | ClosedSelectorException e) {
+			CrimsonLog.severe("HTTP connection poller failed!");
+			CrimsonLog.severe(e);
+		} finally {
+			for(SelectionKey key : selector.keys()) ((HttpConnection) key.attachment()).close();
+			HttpConnection connection;
+			while((connection = parking.poll()) != null) connection.close();
+			for(HttpConnection waiting : ready) waiting.close();
+			try {
+				selector.close();
+			} catch(IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Hand the connections that have data to workers. A channel can only go back to blocking mode once its
+	 * cancelled key has been flushed out of the selector, which selectNow does.
+	 */
+	private void dispatch() throws IOException {
+		selector.selectNow();
+		for(HttpConnection connection : ready) {
+			try {
+				connection.channel.configureBlocking(true);
+				serving.add(connection);
+				workers.execute(() -> handler.accept(connection));
+			} catch(IOException e) {
+				connection.close();
+			} catch(RejectedExecutionException e) {
+				CrimsonLog.warning("Too many requests, dropping %s", connection.socket.getInetAddress().getHostAddress());
+				serving.remove(connection);
+				connection.close();
+			}
+		}
+		ready.clear();
+	}
+
+}
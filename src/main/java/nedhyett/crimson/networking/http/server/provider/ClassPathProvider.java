@@ -30,11 +30,11 @@ import nedhyett.crimson.networking.http.HttpStatusCodes;
 import nedhyett.crimson.networking.http.MimeTypeLibrary;
 import nedhyett.crimson.networking.http.server.HttpQueryData;
 import nedhyett.crimson.networking.http.server.IHttpServerProvider;
-import nedhyett.crimson.utility.StreamUtils;
 import nedhyett.crimson.utility.StringUtils;
 
-import java.io.InputStream;
 import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
 
 /**
  * Retrieves items from the classpath, attempts to identify the mime type, and wraps them into a response.
@@ -70,10 +70,10 @@ public class ClassPathProvider implements IHttpServerProvider {
 	public HttpResponse handle(HttpRequest request, HttpQueryData data, Socket s) throws Exception {
 		HttpResponse response = new HttpResponse();
 		response.addResponseHeader("Content-Type", request.page.endsWith("/") ? MimeTypeLibrary.resolve("html") + "; charset=utf-8" : MimeTypeLibrary.resolve(StringUtils.getFileExtension(request.page)) + "; charset=utf-8");
-		InputStream in = request.page.endsWith("/") ? ClassLoader.getSystemResourceAsStream(rootPath + request.page + "index.html") : ClassLoader.getSystemResourceAsStream(rootPath + request.page);
-		if(in == null) return new HttpResponse(HttpStatusCodes._404);
-		response.addResponseHeader("Content-Length", in.available());
-		StreamUtils.bridge(in, response);
+		URL resource = request.page.endsWith("/") ? ClassLoader.getSystemResource(rootPath + request.page + "index.html") : ClassLoader.getSystemResource(rootPath + request.page);
+		if(resource == null) return new HttpResponse(HttpStatusCodes._404);
+		URLConnection connection = resource.openConnection();
+		response.setBody(connection.getInputStream(), connection.getContentLengthLong());
 		return response;
 	}
 
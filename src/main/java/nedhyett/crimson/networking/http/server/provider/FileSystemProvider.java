@@ -25,23 +25,27 @@
 package nedhyett.crimson.networking.http.server.provider;
 
 import nedhyett.crimson.networking.http.MimeTypeLibrary;
-import nedhyett.crimson.logging.CrimsonLog;
 import nedhyett.crimson.networking.http.HttpRequest;
 import nedhyett.crimson.networking.http.HttpResponse;
 import nedhyett.crimson.networking.http.HttpStatusCodes;
 import nedhyett.crimson.networking.http.server.HttpQueryData;
 import nedhyett.crimson.networking.http.server.IHttpServerProvider;
-import nedhyett.crimson.utility.StreamUtils;
+import nedhyett.crimson.networking.http.server.provider.StaticFileCache.CachedFile;
 import nedhyett.crimson.utility.StringUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.IOException;
 import java.net.Socket;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 /**
  * Wraps the filesystem and sends files available to it as a response, after attempting to identify the mime type.
  * <p>
+ * Files are looked up through a {@link StaticFileCache}, so repeat requests for small files are answered from
+ * memory and bigger files are streamed from disk. Responses carry an ETag and Last-Modified date, conditional
+ * requests that match get a 304, and clients that accept gzip get the gzipped variant when there is one.
+ * <p>
  * (Created on 19/05/2015)
  *
  * @author Ned Hyett
@@ -53,6 +57,11 @@ public class FileSystemProvider implements IHttpServerProvider {
 	 */
 	public final String rootPath;
 
+	/**
+	 * The cache files are looked up through.
+	 */
+	public final StaticFileCache cache;
+
 	/**
 	 * Create a FileSystemProvider with default settings.
 	 */
@@ -61,36 +70,110 @@ public class FileSystemProvider implements IHttpServerProvider {
 	}
 
 	/**
-	 * Create a FileSystemProvider with a root path.
+	 * Create a FileSystemProvider with a root path and a default cache.
 	 *
 	 * @param rootPath the root path to use.
 	 */
 	public FileSystemProvider(String rootPath) {
-		this.rootPath = rootPath;
+		this(rootPath, new StaticFileCache());
 	}
 
+	/**
+	 * Create a FileSystemProvider with a root path and a cache, which may be shared between providers.
+	 *
+	 * @param rootPath the root path to use.
+	 * @param cache    the cache to use. A cache with a size of 0 holds nothing and sends every file from disk.
+	 */
+	public FileSystemProvider(String rootPath, StaticFileCache cache) {
+		this.rootPath = rootPath;
+		this.cache = cache;
+	}
 
 	@Override
 	public HttpResponse handle(HttpRequest request, HttpQueryData data, Socket s) throws Exception {
-		String aPath = (new File(rootPath + request.page).isDirectory() ? rootPath + request.page + "/index.html" : rootPath + request.page);
-		CrimsonLog.debug(aPath);
-		if(!new File(aPath).exists()) return new HttpResponse(HttpStatusCodes._404);
+		CachedFile file;
+		try {
+			file = cache.get(rootPath + request.page);
+		} catch(IOException ignored) {
+			file = null;
+		}
+		if(file == null) return new HttpResponse(HttpStatusCodes._404);
+		boolean gzip = file.hasGzip() && acceptsGzip(request);
+		String etag = gzip ? file.gzipEtag : file.etag;
 		HttpResponse response = new HttpResponse();
-		response.addResponseHeader("Content-Type", new File(rootPath + request.page).isDirectory() ? MimeTypeLibrary.resolve("html") + "; charset=utf-8" : MimeTypeLibrary.resolve(StringUtils.getFileExtension(request.page)) + "; charset=utf-8");
-		InputStream in = null;
+		response.addResponseHeader("ETag", etag);
+		response.addResponseHeader("Last-Modified", file.lastModifiedHeader);
+		if(file.hasGzip()) response.addResponseHeader("Vary", "Accept-Encoding");
+		if(isNotModified(request, etag, file.lastModified)) {
+			response.setResponseCode(HttpStatusCodes._304);
+			return response;
+		}
+		response.addResponseHeader("Content-Type", MimeTypeLibrary.resolve(StringUtils.getFileExtension(file.file.getName())) + "; charset=utf-8");
+		if(gzip) response.addResponseHeader("Content-Encoding", "gzip");
+		byte[] bytes = gzip ? file.gzipData : file.data;
+		if(bytes != null) {
+			response.setBody(bytes);
+			return response;
+		}
 		try {
-			in = new FileInputStream(aPath);
-		} catch(Exception ignored) {
-
+			response.setBody(gzip ? file.gzipFile : file.file); //Too big to cache, send it from disk.
+		} catch(IOException ignored) {
+			return new HttpResponse(HttpStatusCodes._404);
 		}
-		if(in == null) return new HttpResponse(HttpStatusCodes._404);
-		StreamUtils.bridge(in, response);
 		return response;
 	}
 
 	@Override
 	public boolean requestIsValid(HttpRequest request, Socket socket) {
-		String aPath = (request.page.endsWith("/") ? rootPath + request.page + "index.html" : rootPath + request.page);
-		return new File(aPath).exists();
+		try {
+			return cache.get(rootPath + request.page) != null;
+		} catch(IOException e) {
+			return false;
+		}
 	}
+
+	/**
+	 * Check a conditional request against the file. If-None-Match takes precedence over If-Modified-Since.
+	 *
+	 * @param request
+	 * @param etag         the ETag of the variant that would be sent
+	 * @param lastModified when the file was last modified
+	 *
+	 * @return true if the client's copy is up to date.
+	 */
+	private static boolean isNotModified(HttpRequest request, String etag, long lastModified) {
+		String match = request.getHeader("If-None-Match");
+		if(match != null) {
+			for(String tag : match.split(",")) {
+				tag = tag.trim();
+				if(tag.startsWith("W/")) tag = tag.substring(2);
+				if(tag.equals("*") || tag.equals(etag)) return true;
+			}
+			return false;
+		}
+		String since = request.getHeader("If-Modified-Since");
+		if(since == null) return false;
+		try {
+			long date = ZonedDateTime.parse(since, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			return lastModified / 1000 <= date / 1000; //HTTP dates only go down to the second.
+		} catch(DateTimeParseException e) {
+			return false;
+		}
+	}
+
+	private static boolean acceptsGzip(HttpRequest request) {
+		String accept = request.getHeader("Accept-Encoding");
+		if(accept == null) return false;
+		for(String coding : accept.split(",")) {
+			String[] parts = coding.split(";");
+			if(!parts[0].trim().equalsIgnoreCase("gzip")) continue;
+			for(int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if(param.startsWith("q=")) return !param.substring(2).trim().matches("0(\\.0*)?");
+			}
+			return true;
+		}
+		return false;
+	}
+
 }
@@ -30,13 +30,13 @@ import nedhyett.crimson.networking.http.HttpStatusCodes;
 import nedhyett.crimson.networking.http.server.HttpQueryData;
 import nedhyett.crimson.networking.http.server.IHttpServerProvider;
 import nedhyett.crimson.utility.InternetUtils;
-import nedhyett.crimson.utility.StreamUtils;
 
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.Socket;
 
 /**
- * Proxies all requests to a remote web server.
+ * Proxies all requests to a remote web server. The remote body is streamed through to the client as it arrives.
  * <p>
  * (Created on 20/05/2015)
  *
@@ -59,9 +59,11 @@ public class ProxyProvider implements IHttpServerProvider {
 		HttpURLConnection connection = InternetUtils.getConnection(target + request.rawPage);
 		connection.setRequestMethod("GET");
 		connection.setInstanceFollowRedirects(true);
-		response.addResponseCode(HttpStatusCodes.getCodeForNumber(connection.getResponseCode()));
-		connection.connect();
-		StreamUtils.bridge(connection.getInputStream(), response);
+		int code = connection.getResponseCode();
+		response.setResponseCode(HttpStatusCodes.getCodeForNumber(code));
+		if(connection.getContentType() != null) response.addResponseHeader("Content-Type", connection.getContentType());
+		InputStream in = (code >= 400) ? connection.getErrorStream() : connection.getInputStream();
+		if(in != null) response.setBody(in, connection.getContentLengthLong());
 		return response;
 	}
 
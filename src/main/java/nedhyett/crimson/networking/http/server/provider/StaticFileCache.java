@@ -0,0 +1,406 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server.provider;
+
+import nedhyett.crimson.logging.CrimsonLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps static files in memory for a {@link FileSystemProvider}, along with what is needed to answer conditional
+ * requests (a strong ETag and the Last-Modified date) and a gzipped copy for clients that accept one.
+ * <p>
+ * Files are evicted least recently used first once the cache holds more than its size limit. Files bigger than the
+ * per-file limit are only described, not held, and are still sent from disk. A WatchService on every directory that
+ * holds a cached file drops entries as soon as the file (or its precompressed .gz sibling) changes. If the platform
+ * has no WatchService, entries are checked against the file's size and modification time on every hit instead.
+ *
+ * @author Ned Hyett
+ */
+public class StaticFileCache {
+
+	/**
+	 * What an entry that holds no data is counted as, so that the number of entries is bounded as well.
+	 */
+	private static final int ENTRY_OVERHEAD = 256;
+
+	private static final HashSet<String> COMPRESSIBLE = new HashSet<>(Arrays.asList("html", "htm", "css", "js", "json", "map", "svg", "xml", "txt", "csv", "md", "ico"));
+
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+	/**
+	 * A file that has been looked at by the cache. Instances never change; a changed file gets a new entry.
+	 */
+	public static final class CachedFile {
+
+		/**
+		 * The file on disk, after resolving directory indexes.
+		 */
+		public final File file;
+
+		public final long length;
+
+		public final long lastModified;
+
+		/**
+		 * The Last-Modified header value.
+		 */
+		public final String lastModifiedHeader;
+
+		/**
+		 * The ETag of the uncompressed file, including quotes.
+		 */
+		public final String etag;
+
+		/**
+		 * The contents, or null if the file is too big to hold and has to be read from disk.
+		 */
+		public final byte[] data;
+
+		/**
+		 * The gzipped contents, or null if there is no gzipped variant in memory.
+		 */
+		public final byte[] gzipData;
+
+		/**
+		 * A precompressed .gz sibling that is too big to hold, or null.
+		 */
+		public final File gzipFile;
+
+		/**
+		 * The ETag of the gzipped variant, or null if there isn't one.
+		 */
+		public final String gzipEtag;
+
+		private CachedFile(File file, long length, long lastModified, String etag, byte[] data, byte[] gzipData, File gzipFile) {
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.lastModifiedHeader = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+			this.etag = etag;
+			this.data = data;
+			this.gzipData = gzipData;
+			this.gzipFile = gzipFile;
+			this.gzipEtag = (gzipData != null || gzipFile != null) ? etag.substring(0, etag.length() - 1) + "-gz\"" : null;
+		}
+
+		/**
+		 * Check if a gzipped variant can be sent.
+		 *
+		 * @return
+		 */
+		public boolean hasGzip() {
+			return gzipEtag != null;
+		}
+
+		private int weight() {
+			return ENTRY_OVERHEAD + (data != null ? data.length : 0) + (gzipData != null ? gzipData.length : 0);
+		}
+
+	}
+
+	private final long maxBytes;
+
+	private final long maxFileSize;
+
+	private final boolean compress;
+
+	/**
+	 * Entries by the path they were requested as, least recently used first.
+	 */
+	private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+	private long size = 0;
+
+	/**
+	 * Bumped on every invalidation, so that a file loaded while it was being changed isn't cached.
+	 */
+	private long generation = 0;
+
+	private final WatchService watcher;
+
+	/**
+	 * False if there is no WatchService (or it has been closed), in which case hits are checked against the disk.
+	 */
+	private volatile boolean watching;
+
+	private final ConcurrentHashMap<WatchKey, Path> watched = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<Path, WatchKey> watchedDirs = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a cache of up to 32 MiB, holding files of up to 1 MiB and gzipping text files.
+	 */
+	public StaticFileCache() {
+		this(32 << 20, 1 << 20, true);
+	}
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param maxBytes    the most file data to hold in memory.
+	 * @param maxFileSize the biggest file to hold in memory. Bigger ones are sent from disk.
+	 * @param compress    true to gzip text files that have no precompressed .gz sibling.
+	 */
+	public StaticFileCache(long maxBytes, long maxFileSize, boolean compress) {
+		this.maxBytes = maxBytes;
+		this.maxFileSize = maxFileSize;
+		this.compress = compress;
+		WatchService service = null;
+		try {
+			service = FileSystems.getDefault().newWatchService();
+		} catch(IOException | UnsupportedOperationException e) {
+			CrimsonLog.warning("No WatchService available, static files will be checked on every request.");
+		}
+		this.watcher = service;
+		this.watching = service != null;
+		if(service != null) {
+			Thread t = new Thread(this::watch, "Crimson Static File Watcher");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Get a file, loading it if it isn't cached. A directory resolves to its index.html.
+	 *
+	 * @param path the path of the file
+	 *
+	 * @return the file, or null if there is no such file.
+	 *
+	 * @throws IOException if the file could not be read.
+	 */
+	public CachedFile get(String path) throws IOException {
+		long loadGeneration;
+		synchronized(this) {
+			CachedFile entry = entries.get(path);
+			if(entry != null) {
+				if(watching || isFresh(entry)) return entry;
+				remove(path);
+			}
+			loadGeneration = generation;
+		}
+		File file = new File(path);
+		if(file.isDirectory()) file = new File(file, "index.html");
+		if(!file.isFile()) return null;
+		//Watch before reading, so a change made while the file is being read is seen.
+		boolean cacheable = !watching || watch(file.getAbsoluteFile().getParentFile().toPath());
+		CachedFile entry = load(file);
+		synchronized(this) {
+			if(cacheable && loadGeneration == generation && entry.weight() <= maxBytes) {
+				CachedFile old = entries.put(path, entry);
+				if(old != null) size -= old.weight();
+				size += entry.weight();
+				evict();
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Drop every cached file.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+		generation++;
+	}
+
+	/**
+	 * Get the amount of memory the cache is holding.
+	 *
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Stop watching for changes. The cache is cleared and checks files on every hit from now on.
+	 */
+	public void close() {
+		if(watcher == null) return;
+		watching = false;
+		try {
+			watcher.close();
+		} catch(IOException ignored) {
+		}
+		clear();
+	}
+
+	private CachedFile load(File file) throws IOException {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		File gz = new File(file.getPath() + ".gz");
+		if(!gz.isFile()) gz = null;
+		if(length > maxFileSize) {
+			String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+			byte[] gzipData = (gz != null && gz.length() <= maxFileSize) ? Files.readAllBytes(gz.toPath()) : null;
+			return new CachedFile(file, length, lastModified, etag, null, gzipData, gzipData == null ? gz : null);
+		}
+		byte[] data = Files.readAllBytes(file.toPath());
+		byte[] gzipData = null;
+		if(gz != null && gz.length() <= maxFileSize) {
+			gzipData = Files.readAllBytes(gz.toPath());
+			gz = null;
+		} else if(gz == null && compress && isCompressible(file)) {
+			gzipData = gzip(data);
+			if(gzipData.length > data.length - data.length / 10) gzipData = null; //Not worth it.
+		}
+		return new CachedFile(file, data.length, lastModified, "\"" + hash(data) + "\"", data, gzipData, gz);
+	}
+
+	private static boolean isFresh(CachedFile entry) {
+		return entry.file.length() == entry.length && entry.file.lastModified() == entry.lastModified;
+	}
+
+	private static boolean isCompressible(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot != -1 && COMPRESSIBLE.contains(name.substring(dot + 1).toLowerCase());
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2 + 64);
+		try(GZIPOutputStream out = new GZIPOutputStream(baos)) {
+			out.write(data);
+		}
+		return baos.toByteArray();
+	}
+
+	private static String hash(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+			StringBuilder sb = new StringBuilder(32);
+			for(int i = 0; i < 16; i++) sb.append(String.format("%02x", digest[i]));
+			return sb.toString();
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); //Every JVM has SHA-1.
+		}
+	}
+
+	private void remove(String path) {
+		CachedFile old = entries.remove(path);
+		if(old != null) size -= old.weight();
+	}
+
+	private void evict() {
+		Iterator<CachedFile> it = entries.values().iterator();
+		while(size > maxBytes && it.hasNext()) {
+			size -= it.next().weight();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Start watching a directory for changes.
+	 *
+	 * @param dir
+	 *
+	 * @return true if changes in the directory will invalidate the cache.
+	 */
+	private boolean watch(Path dir) {
+		if(watcher == null) return false;
+		if(watchedDirs.containsKey(dir)) return true;
+		try {
+			WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			watched.put(key, dir);
+			watchedDirs.put(dir, key);
+			return true;
+		} catch(IOException | ClosedWatchServiceException e) {
+			return false;
+		}
+	}
+
+	private void watch() {
+		try {
+			while(true) {
+				WatchKey key = watcher.take();
+				Path dir = watched.get(key);
+				for(WatchEvent<?> event : key.pollEvents()) {
+					if(dir == null) continue;
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						invalidate(dir, null);
+					} else {
+						invalidate(dir, event.context().toString());
+					}
+				}
+				if(!key.reset()) {
+					watched.remove(key);
+					if(dir != null) {
+						watchedDirs.remove(dir);
+						invalidate(dir, null);
+					}
+				}
+			}
+		} catch(InterruptedException | ClosedWatchServiceException e) {
+			//Closed.
+		}
+	}
+
+	/**
+	 * Drop the entries for a file that has changed, and for the file it is a gzipped variant of.
+	 *
+	 * @param dir  the directory the file is in.
+	 * @param name the name of the file, or null for every file in the directory.
+	 */
+	private synchronized void invalidate(Path dir, String name) {
+		generation++;
+		String original = (name != null && name.endsWith(".gz")) ? name.substring(0, name.length() - 3) : null;
+		Iterator<Map.Entry<String, CachedFile>> it = entries.entrySet().iterator();
+		while(it.hasNext()) {
+			CachedFile entry = it.next().getValue();
+			File file = entry.file;
+			if(!file.getAbsoluteFile().getParentFile().toPath().equals(dir)) continue;
+			if(name == null || file.getName().equals(name) || file.getName().equals(original)) {
+				size -= entry.weight();
+				it.remove();
+			}
+		}
+	}
+
+}
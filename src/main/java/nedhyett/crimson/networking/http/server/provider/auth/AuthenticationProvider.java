@@ -68,32 +68,28 @@ public class AuthenticationProvider implements IHttpServerProvider, IProviderAcc
 		comparators.remove(comparator);
 	}
 
-	private IAuthenticationProviderComparator getComparatorForRequest(HttpRequest request) {
-		for(IAuthenticationProviderComparator comparator : comparators) {
-			if(comparator.isValidForRequest(request)) return comparator;
-		}
-		return null;
-	}
-
 	private String[] extractAndDecryptHeaders(HttpRequest request) {
 		if(!request.hasHeader("Authorization")) return null;
 		return (new String(Base64.getDecoder().decode(request.getHeader("Authorization").split(" ")[1]))).split(":");
 	}
 
-	private boolean runComparators(HttpRequest request, String[] key) {
-		for(IAuthenticationProviderComparator comparator : comparators) {
-			if(comparator.isValidForRequest(request)) {
-				if(comparator.compare(key[0], key[1])) return true;
-			}
-		}
-		return false;
-	}
-
 	@Override
 	public HttpResponse handle(HttpRequest request, HttpQueryData data, Socket s) throws Exception {
 		String[] key = extractAndDecryptHeaders(request);
-		IAuthenticationProviderComparator comparator = getComparatorForRequest(request);
-		if(key == null || !runComparators(request, key)) {
+		//One pass over the comparators finds both the realm to ask for and whether the key is accepted.
+		IAuthenticationProviderComparator comparator = null;
+		boolean accepted = false;
+		for(IAuthenticationProviderComparator candidate : comparators) {
+			if(!candidate.isValidForRequest(request)) continue;
+			if(comparator == null) comparator = candidate;
+			if(key == null || key.length < 2) break;
+			if(candidate.compare(key[0], key[1])) {
+				accepted = true;
+				break;
+			}
+		}
+		if(comparator == null) return null; //Not protected by this provider.
+		if(!accepted) {
 			HttpResponse response = new HttpResponse(HttpStatusCodes._401);
 			response.addResponseHeader("Connection", "close");
 			response.addResponseHeader("WWW-Authenticate", "Basic Realm=\"" + comparator.getRealm(request) + "\"");
@@ -91,15 +91,19 @@ public class GroupingSSEProvider<T extends SSEStream> implements IHttpServerProv
 	@Override
 	public HttpResponse handle(HttpRequest request, HttpQueryData data, Socket s) throws Exception {
 		if(!data.hasParameter(parameter)) return new HttpResponse(HttpStatusCodes._400);
-		T stream = factory.makeStream(data.getParam(parameter));
-		pool.addStream(data.getParam(parameter), stream);
-		if(!reactor.publish(new NewGroupingSSEStreamEvent<>(data.getParam(parameter), stream))) {
-			pool.removeStream(data.getParam(parameter));
+		String param = data.getParam(parameter);
+		T stream = factory.makeStream(param);
+		pool.addStream(param, stream);
+		if(!reactor.publish(new NewGroupingSSEStreamEvent<>(param, stream))) {
+			pool.removeStream(stream);
 			return new HttpResponse(HttpStatusCodes._400);
 		}
+		stream.addDisconnectListener(() -> {
+			pool.removeStream(stream);
+			reactor.publish(new DisconnectGroupingSSEStreamEvent<>(param, stream));
+		});
 		stream.handleConnection(s, request);
-		reactor.publish(new DisconnectGroupingSSEStreamEvent<>(data.getParam(parameter), stream));
-		return new HttpResponse();
+		return HttpResponse.detached();
 	}
 
 	@Override
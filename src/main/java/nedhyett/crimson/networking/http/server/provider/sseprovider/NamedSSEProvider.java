@@ -90,15 +90,19 @@ public class NamedSSEProvider<T extends SSEStream> implements IHttpServerProvide
 	@Override
 	public HttpResponse handle(HttpRequest request, HttpQueryData data, Socket s) throws Exception {
 		if(!data.hasParameter(parameter)) return new HttpResponse(HttpStatusCodes._400);
-		T stream = factory.makeStream(data.getParam(parameter));
-		pool.addStream(data.getParam(parameter), stream);
-		if(!reactor.publish(new NewNamedSSEStreamEvent<>(data.getParam(parameter), stream))) {
-			pool.removeStream(data.getParam(parameter));
+		String param = data.getParam(parameter);
+		T stream = factory.makeStream(param);
+		pool.addStream(param, stream);
+		if(!reactor.publish(new NewNamedSSEStreamEvent<>(param, stream))) {
+			pool.removeStream(param);
 			return new HttpResponse(HttpStatusCodes._400);
 		}
+		stream.addDisconnectListener(() -> {
+			pool.removeStream(stream); //Not by name, as a newer stream may have taken it.
+			reactor.publish(new DisconnectNamedSSEStreamEvent<>(param, stream));
+		});
 		stream.handleConnection(s, request);
-		reactor.publish(new DisconnectNamedSSEStreamEvent<>(data.getParam(parameter), stream));
-		return new HttpResponse();
+		return HttpResponse.detached();
 	}
 
 	@Override
@@ -93,9 +93,12 @@ public class SSEProvider<T extends SSEStream> implements IHttpServerProvider {
 			pool.removeStream(stream);
 			return new HttpResponse(HttpStatusCodes._400);
 		}
+		stream.addDisconnectListener(() -> {
+			pool.removeStream(stream);
+			reactor.publish(new DisconnectSSEStreamEvent<>(stream));
+		});
 		stream.handleConnection(s, request);
-		reactor.publish(new DisconnectSSEStreamEvent<>(stream));
-		return new HttpResponse();
+		return HttpResponse.detached();
 	}
 
 	@Override
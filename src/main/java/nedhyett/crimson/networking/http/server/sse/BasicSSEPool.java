@@ -50,7 +50,8 @@ public class BasicSSEPool<T extends SSEStream> implements ISSEPool<T> {
 	}
 
 	public void queueDataOnAll(Object data) {
-		for(T s : streams) s.queueData(data);
+		SSEFrame frame = SSEFrame.of(data);
+		for(T s : streams) s.queueFrame(frame);
 	}
 
 }
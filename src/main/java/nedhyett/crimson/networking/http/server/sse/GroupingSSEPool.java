@@ -113,9 +113,11 @@ public class GroupingSSEPool<T extends SSEStream> implements ISSEPool<T> {
 	 * @param data the data to be queued.
 	 */
 	public void queueDataOn(String name, Object data) {
-		if(!streams.containsKey(name)) return;
-		for(T stream : streams.get(name)) {
-			stream.queueData(data);
+		CopyOnWriteArrayList<T> group = streams.get(name);
+		if(group == null) return;
+		SSEFrame frame = SSEFrame.of(data);
+		for(T stream : group) {
+			stream.queueFrame(frame);
 		}
 	}
 
@@ -125,7 +127,8 @@ public class GroupingSSEPool<T extends SSEStream> implements ISSEPool<T> {
 	 * @param data the data to be queued.
 	 */
 	public void queueDataOnAll(Object data) {
-		for(String s : streams.keySet()) queueDataOn(s, data);
+		SSEFrame frame = SSEFrame.of(data);
+		for(String s : streams.keySet()) queueDataOn(s, frame);
 	}
 
 	/**
@@ -24,7 +24,6 @@
 
 package nedhyett.crimson.networking.http.server.sse;
 
-import nedhyett.crimson.utility.ArrayUtils;
 import nedhyett.crimson.eventreactor.EventReactor;
 import nedhyett.crimson.types.BooleanCallback;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
@@ -62,10 +61,12 @@ public class NamedSSEPool<T extends SSEStream> implements ISSEPool<T> {
 	 * @param stream the stream.
 	 */
 	public void removeStream(T stream) {
-		String name = ArrayUtils.flip(streams).get(stream);
-		try {
-			reactor.publish(new NamedSSEStreamRemovedEvent(name, streams.remove(name)));
-		} catch (Exception e) {}
+		for(Map.Entry<String, T> e : streams.entrySet()) {
+			if(e.getValue() == stream && streams.remove(e.getKey(), stream)) {
+				reactor.publish(new NamedSSEStreamRemovedEvent(e.getKey(), stream));
+				return;
+			}
+		}
 	}
 
 	/**
@@ -120,8 +121,8 @@ public class NamedSSEPool<T extends SSEStream> implements ISSEPool<T> {
 	 * @param data the data to be queued.
 	 */
 	public void queueDataOn(String name, Object data) {
-		if(!streams.containsKey(name)) return;
-		streams.get(name).queueData(data);
+		T stream = streams.get(name);
+		if(stream != null) stream.queueData(data);
 	}
 
 	/**
@@ -130,7 +131,8 @@ public class NamedSSEPool<T extends SSEStream> implements ISSEPool<T> {
 	 * @param data the data to be queued.
 	 */
 	public void queueDataOnAll(Object data) {
-		for(SSEStream s : streams.values()) s.queueData(data);
+		SSEFrame frame = SSEFrame.of(data);
+		for(SSEStream s : streams.values()) s.queueFrame(frame);
 	}
 
 	/**
@@ -140,6 +142,7 @@ public class NamedSSEPool<T extends SSEStream> implements ISSEPool<T> {
 	 * @param except a list of names not to queue data on.
 	 */
 	public void queueDataOnAllExcept(Object data, String... except) {
+		SSEFrame frame = SSEFrame.of(data);
 		for(Map.Entry<String, T> e : streams.entrySet()) {
 			boolean can = true;
 			for(String exc : except) {
@@ -149,13 +152,14 @@ public class NamedSSEPool<T extends SSEStream> implements ISSEPool<T> {
 				}
 			}
 			if(!can) continue;
-			e.getValue().queueData(data);
+			e.getValue().queueFrame(frame);
 		}
 	}
 
 	public void queueDataOnAllIf(Object data, BooleanCallback<SSEStream> iff) {
+		SSEFrame frame = SSEFrame.of(data);
 		for(Map.Entry<String, T> e : streams.entrySet()) {
-			if(iff.test(e.getValue())) e.getValue().queueData(data);
+			if(iff.test(e.getValue())) e.getValue().queueFrame(frame);
 		}
 	}
 
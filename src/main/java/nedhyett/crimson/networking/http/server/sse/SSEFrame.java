@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server.sse;
+
+import nedhyett.crimson.networking.http.server.sse.json.JSONMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An event that has already been encoded for the SSE protocol. Encode an event once with {@link #of(Object)} and
+ * queue the same frame on every stream that should get it; each stream writes out its own view of the same bytes.
+ *
+ * @author Ned Hyett
+ */
+public final class SSEFrame {
+
+	/**
+	 * A comment line, which clients ignore. Sent to keep idle connections open through proxies.
+	 */
+	static final SSEFrame KEEP_ALIVE = new SSEFrame(":\n\n".getBytes(StandardCharsets.UTF_8));
+
+	private final ByteBuffer bytes;
+
+	private SSEFrame(byte[] bytes) {
+		this.bytes = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Encode a piece of data as an unnamed event. JSONMessages are written out as JSON, anything else as its string
+	 * form.
+	 *
+	 * @param data
+	 *
+	 * @return
+	 */
+	public static SSEFrame of(Object data) {
+		return of(null, data);
+	}
+
+	/**
+	 * Encode a piece of data as an event.
+	 *
+	 * @param event the event name, or null for the default "message" event
+	 * @param data
+	 *
+	 * @return
+	 */
+	public static SSEFrame of(String event, Object data) {
+		if(data instanceof SSEFrame) return (SSEFrame) data;
+		String text = (data instanceof JSONMessage) ? ((JSONMessage) data).write().replace("\n", "").replace("\t", "") : String.valueOf(data);
+		StringBuilder sb = new StringBuilder(text.length() + 16);
+		if(event != null) sb.append("event: ").append(event).append('\n');
+		//Every line of the data needs its own field, or the client would end the event at the first line break.
+		int start = 0;
+		while(true) {
+			int end = text.indexOf('\n', start);
+			if(end == -1) {
+				sb.append("data: ").append(text, start, text.length()).append('\n');
+				break;
+			}
+			sb.append("data: ").append(text, start, end).append('\n');
+			start = end + 1;
+		}
+		sb.append('\n');
+		return new SSEFrame(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Get a fresh view of the encoded bytes, with its own position.
+	 *
+	 * @return
+	 */
+	public ByteBuffer buffer() {
+		return bytes.duplicate();
+	}
+
+	/**
+	 * Get the length of the encoded frame.
+	 *
+	 * @return
+	 */
+	public int length() {
+		return bytes.capacity();
+	}
+
+}
@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server.sse;
+
+import nedhyett.crimson.logging.CrimsonLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the events queued on SSEStreams using a few non-blocking writer threads, so that thousands of clients can
+ * be connected without a thread each. Streams are spread over the writers as they connect; each writer gathers
+ * everything a stream has waiting into one write, and only comes back to a stream when its socket can take more.
+ * <p>
+ * Idle streams are sent a comment every 15 seconds, which keeps them open through proxies and notices clients
+ * that have gone away.
+ *
+ * @author Ned Hyett
+ */
+public class SSEHub {
+
+	private static final long KEEP_ALIVE_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+
+	/**
+	 * The most events gathered into one write.
+	 */
+	private static final int BATCH = 64;
+
+	private static volatile SSEHub defaultHub;
+
+	/**
+	 * Get the hub that streams are attached to unless told otherwise, creating it on first use with a writer per
+	 * core (up to 4).
+	 *
+	 * @return
+	 */
+	public static SSEHub getDefault() {
+		if(defaultHub == null) {
+			synchronized(SSEHub.class) {
+				if(defaultHub == null) defaultHub = new SSEHub(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+			}
+		}
+		return defaultHub;
+	}
+
+	private final Writer[] writers;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final AtomicInteger streams = new AtomicInteger();
+
+	/**
+	 * Create a hub.
+	 *
+	 * @param writers the number of writer threads.
+	 *
+	 * @throws IllegalStateException if a selector could not be opened.
+	 */
+	public SSEHub(int writers) {
+		this.writers = new Writer[writers];
+		for(int i = 0; i < writers; i++) {
+			try {
+				this.writers[i] = new Writer(i);
+			} catch(IOException e) {
+				throw new IllegalStateException("Failed to open a selector for the SSE writers!", e);
+			}
+			this.writers[i].start();
+		}
+	}
+
+	/**
+	 * Start sending a stream's events. The stream's channel must be set.
+	 *
+	 * @param stream
+	 */
+	void attach(SSEStream stream) {
+		Writer writer = writers[(next.getAndIncrement() & Integer.MAX_VALUE) % writers.length];
+		try {
+			stream.channel.configureBlocking(false);
+		} catch(IOException e) {
+			stream.close();
+			return;
+		}
+		streams.incrementAndGet();
+		stream.addDisconnectListener(streams::decrementAndGet);
+		stream.writer = writer;
+		writer.schedule(stream);
+	}
+
+	/**
+	 * Get the number of streams attached to the hub.
+	 *
+	 * @return
+	 */
+	public int numStreams() {
+		return streams.get();
+	}
+
+	/**
+	 * Stop the writers and disconnect every stream.
+	 */
+	public void close() {
+		for(Writer writer : writers) writer.shutdown();
+	}
+
+	/**
+	 * One writer thread and the selector it waits on.
+	 */
+	final class Writer extends Thread {
+
+		private final Selector selector;
+
+		/**
+		 * Streams with something to do: a new connection, queued events or a disconnect.
+		 */
+		private final ConcurrentLinkedQueue<SSEStream> ready = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Set once the selector has been woken, so a broadcast to many streams only wakes it once.
+		 */
+		private final AtomicBoolean woken = new AtomicBoolean(false);
+
+		private final ByteBuffer[] batch = new ByteBuffer[BATCH + 1];
+
+		private final ByteBuffer scratch = ByteBuffer.allocate(512);
+
+		private volatile boolean running = true;
+
+		private Writer(int id) throws IOException {
+			super("SSE Writer " + id);
+			this.setDaemon(true);
+			this.selector = Selector.open();
+		}
+
+		/**
+		 * Have the writer look at a stream soon. Safe to call from any thread.
+		 *
+		 * @param stream
+		 */
+		void schedule(SSEStream stream) {
+			if(!stream.scheduled.compareAndSet(false, true)) return;
+			ready.add(stream);
+			if(woken.compareAndSet(false, true)) selector.wakeup();
+		}
+
+		private void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			long nextKeepAlive = System.currentTimeMillis() + KEEP_ALIVE_INTERVAL;
+			try {
+				while(running) {
+					selector.select(Math.max(1, nextKeepAlive - System.currentTimeMillis()));
+					woken.set(false);
+					for(SelectionKey key : selector.selectedKeys()) {
+						SSEStream stream = (SSEStream) key.attachment();
+						try {
+							if(key.isReadable()) read(stream);
+							if(key.isValid() && key.isWritable()) flush(stream);
+						} catch(CancelledKeyException e) {
+							stream.close();
+						}
+					}
+					selector.selectedKeys().clear();
+					SSEStream stream;
+					while((stream = ready.poll()) != null) {
+						stream.scheduled.set(false);
+						flush(stream);
+					}
+					if(System.currentTimeMillis() >= nextKeepAlive) {
+						for(SelectionKey key : selector.keys()) {
+							SSEStream idle = (SSEStream) key.attachment();
+							if(idle.getQueued() == 0 && idle.current == null) idle.queueFrame(SSEFrame.KEEP_ALIVE);
+						}
+						nextKeepAlive = System.currentTimeMillis() + KEEP_ALIVE_INTERVAL;
+					}
+				}
+			} catch(IOException | ClosedSelectorException e) {
+				CrimsonLog.severe("SSE writer failed!");
+				CrimsonLog.severe(e);
+			} finally {
+				for(SelectionKey key : selector.keys()) ((SSEStream) key.attachment()).close();
+				SSEStream stream;
+				while((stream = ready.poll()) != null) stream.close();
+				try {
+					selector.close();
+				} catch(IOException ignored) {
+				}
+			}
+		}
+
+		/**
+		 * The client isn't meant to send anything, so a read only ever finds the end of the stream (or junk to skip).
+		 */
+		private void read(SSEStream stream) {
+			try {
+				scratch.clear();
+				if(stream.channel.read(scratch) == -1) stream.close();
+			} catch(IOException e) {
+				stream.close();
+			}
+		}
+
+		/**
+		 * Write as much of what the stream has waiting as the socket will take.
+		 */
+		private void flush(SSEStream stream) {
+			if(stream.disconnected) {
+				stream.close();
+				return;
+			}
+			if(!stream.isConnected()) {
+				stream.close();
+				return;
+			}
+			try {
+				if(stream.key == null) stream.key = stream.channel.register(selector, SelectionKey.OP_READ, stream);
+				while(true) {
+					int offset = 0;
+					if(stream.current != null) batch[offset++] = stream.current;
+					int count = stream.peek(batch, offset);
+					if(offset + count == 0) {
+						setInterest(stream, SelectionKey.OP_READ);
+						return;
+					}
+					stream.channel.write(batch, 0, offset + count);
+					if(stream.current != null && stream.current.hasRemaining()) {
+						setInterest(stream, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+					int sent = 0;
+					while(sent < count && !batch[offset + sent].hasRemaining()) sent++;
+					//A partly written event becomes the current one, so it is finished before anything else goes out.
+					stream.current = (sent < count) ? batch[offset + sent] : null;
+					stream.drained(stream.peeked + sent + (sent < count ? 1 : 0));
+					if(stream.current != null) {
+						setInterest(stream, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+				}
+			} catch(IOException | CancelledKeyException e) {
+				stream.close();
+			} finally {
+				Arrays.fill(batch, null);
+			}
+		}
+
+		private void setInterest(SSEStream stream, int ops) {
+			if(stream.key.isValid() && stream.key.interestOps() != ops) stream.key.interestOps(ops);
+		}
+
+	}
+
+}
@@ -21,27 +21,39 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  * THE SOFTWARE.
  */
-
 package nedhyett.crimson.networking.http.server.sse;
 
-import nedhyett.crimson.networking.http.HttpResponse;
+import nedhyett.crimson.logging.CrimsonLog;
 import nedhyett.crimson.networking.http.HttpRequest;
-import nedhyett.crimson.networking.http.server.sse.json.JSONMessage;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Represents the connection to the client through the SSE protocol.
  * <p>
+ * Queued events wait in a fixed-size ring until one of an {@link SSEHub}'s writer threads sends them, so a stream
+ * needs no thread of its own. If the client falls so far behind that the ring fills up, the stream's
+ * {@link SSELagPolicy} decides what happens.
+ * <p>
  * (Created on 20/03/2015)
  *
  * @author Ned
  */
 public class SSEStream {
 
+	private static final byte[] HEAD = ("HTTP/1.1 200 OK\r\n"
+			+ "Content-Type: text/event-stream\r\n"
+			+ "Cache-Control: no-cache\r\n"
+			+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
 	/**
 	 * The the last pool that this stream was added to (if any).
 	 */
@@ -50,91 +62,163 @@ public class SSEStream {
 	/**
 	 * Flag to indicate that this stream should disconnect during the next cycle.
 	 */
-	protected boolean disconnected = false;
+	protected volatile boolean disconnected = false;
+
+	/**
+	 * Events waiting to be sent, from head (inclusive) to tail (exclusive). Guarded by the ring itself.
+	 */
+	private final SSEFrame[] ring;
+	private long head = 0;
+	private long tail = 0;
+	private long dropped = 0;
 
-	private Socket socket;
+	private final SSELagPolicy lagPolicy;
+
+	private final ArrayList<Runnable> disconnectListeners = new ArrayList<>();
+
+	private volatile boolean closed = false;
+
+	/*
+	 * Owned by the hub writer the stream is attached to.
+	 */
+	volatile SSEHub.Writer writer;
+	SocketChannel channel;
+	SelectionKey key;
+	final AtomicBoolean scheduled = new AtomicBoolean(false);
 
 	/**
-	 * The thread-safe queue of data to send to the client. Do not assume that messages are sent on a first-come-first-serve
-	 * basis. They may not be.
+	 * Part of an event that the socket would not take in full, to be finished before anything else is sent.
 	 */
-	private final CopyOnWriteArrayList<Object> queue = new CopyOnWriteArrayList<>();
+	ByteBuffer current;
 
 	/**
-	 * Queue new data to be sent to the client. JSONMessages will be automatically converted into a string.
+	 * The sequence number of the first event copied by the last peek.
+	 */
+	long peeked;
+
+	/**
+	 * Create a stream that holds up to 256 unsent events and drops the oldest when it is full.
+	 */
+	public SSEStream() {
+		this(256, SSELagPolicy.DROP_OLDEST);
+	}
+
+	/**
+	 * Create a stream.
+	 *
+	 * @param capacity  how many unsent events to hold for a slow client.
+	 * @param lagPolicy what to do when that many are waiting.
+	 */
+	public SSEStream(int capacity, SSELagPolicy lagPolicy) {
+		this.ring = new SSEFrame[capacity];
+		this.lagPolicy = lagPolicy;
+	}
+
+	/**
+	 * Queue new data to be sent to the client. JSONMessages will be automatically converted into a string. When
+	 * sending the same data to many streams, encode it once with {@link SSEFrame#of(Object)} and queue the frame.
 	 *
 	 * @param data the data to queue.
 	 */
 	public void queueData(Object data) {
-		if(data instanceof JSONMessage) {
-			queue.add(((JSONMessage) data).write().replace("\n", "").replace("\t", ""));
-		} else {
-			queue.add(data);
-		}
-		synchronized(this) {
-			notify();
+		queueFrame(SSEFrame.of(data));
+	}
+
+	/**
+	 * Queue an encoded event to be sent to the client.
+	 *
+	 * @param frame
+	 */
+	public void queueFrame(SSEFrame frame) {
+		if(closed) return;
+		synchronized(ring) {
+			if(tail - head == ring.length) {
+				if(lagPolicy == SSELagPolicy.DISCONNECT) {
+					disconnected = true;
+				} else {
+					ring[index(head++)] = null;
+					dropped++;
+				}
+			}
+			if(!disconnected) ring[index(tail++)] = frame;
 		}
+		SSEHub.Writer w = writer;
+		if(w != null) w.schedule(this);
 	}
 
 	/**
-	 * Call this with the socket when a client requests a page that triggers this behaviour. Do not
-	 * trigger this method on the main server thread; it blocks until the client disconnects.
+	 * Call this with the socket when a client requests a page that triggers this behaviour. The response head is
+	 * sent and the stream is handed to the default {@link SSEHub}, so this returns straight away and the provider
+	 * should answer with {@link nedhyett.crimson.networking.http.HttpResponse#detached()}. The socket must have a
+	 * channel, as the sockets of an HttpServer do.
 	 *
 	 * @param s
 	 * @param request
 	 */
 	public void handleConnection(Socket s, HttpRequest request) {
-		this.socket = s;
-		PrintWriter pw;
-		try {
-			pw = new PrintWriter(s.getOutputStream(), true);
-		} catch(IOException e) {
-			e.printStackTrace();
+		handleConnection(s, request, SSEHub.getDefault());
+	}
+
+	/**
+	 * Same as {@link #handleConnection(Socket, HttpRequest)}, on a particular hub.
+	 *
+	 * @param s
+	 * @param request
+	 * @param hub
+	 */
+	public void handleConnection(Socket s, HttpRequest request, SSEHub hub) {
+		if(s.getChannel() == null) {
+			CrimsonLog.warning("Can't stream events to a socket without a channel!");
+			try {
+				s.close();
+			} catch(IOException ignored) {
+			}
+			close();
 			return;
 		}
-		HttpResponse response = new HttpResponse();
-		response.addResponseHeader("Content-Type", "text/event-stream");
-		response.addResponseHeader("Cache-Control", "no-cache");
 		try {
-			response.writeOutHead(s.getOutputStream());
+			if(request != null) request.flushPendingOutput();
 		} catch(IOException e) {
-			e.printStackTrace();
-		}
-		while(s.isConnected()) {
-			if(pw.checkError()) break;
-			if(disconnected) break;
-			if(queue.isEmpty()) {
-				try {
-					synchronized(this) {
-						wait();
-					}
-				} catch(InterruptedException e) {
-					e.printStackTrace();
-				}
-				continue;
-			}
 			try {
-				pw.print("data: " + queue.remove(0) + "\n\n");
-			} catch(Exception ignored) {
-				ignored.printStackTrace();
+				s.close();
+			} catch(IOException ignored) {
 			}
+			close();
+			return;
 		}
-		onDisconnect();
-		if(pool != null) {
-			pool.removeStream(this);
-		}
+		this.channel = s.getChannel();
+		this.current = ByteBuffer.wrap(HEAD);
+		hub.attach(this);
 	}
 
 	/**
-	 * Force the stream to disconnect during the next cycle. To disconnect immediately, try pushing some data.
+	 * Force the stream to disconnect. Events that haven't been sent yet are thrown away.
 	 */
 	public void disconnect() {
 		disconnected = true;
-		synchronized(this) {
-			notify();
+		SSEHub.Writer w = writer;
+		if(w != null) {
+			w.schedule(this);
+		} else if(channel == null) {
+			close(); //Never connected.
 		}
 	}
 
+	/**
+	 * Add something to run once the stream has disconnected. Runs on the hub's writer thread.
+	 *
+	 * @param listener
+	 */
+	public void addDisconnectListener(Runnable listener) {
+		synchronized(disconnectListeners) {
+			if(!closed) {
+				disconnectListeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
 	/**
 	 * Override this in subclasses to handle what happens when the stream is disconnected.
 	 */
@@ -143,14 +227,94 @@ public class SSEStream {
 	}
 
 	public boolean isConnected() {
-		if(socket != null) {
-			return socket.isInputShutdown();
-		}
-		return false;
+		return !closed && channel != null && channel.isOpen();
 	}
 
 	public void resetConnection() {
-		disconnected = false;
+		if(!closed) disconnected = false;
+	}
+
+	/**
+	 * Get the number of events thrown away because the client was reading too slowly.
+	 *
+	 * @return
+	 */
+	public long getDropped() {
+		synchronized(ring) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * Get the number of events waiting to be sent.
+	 *
+	 * @return
+	 */
+	public int getQueued() {
+		synchronized(ring) {
+			return (int) (tail - head);
+		}
+	}
+
+	/**
+	 * Copy views of the events waiting to be sent into batch, starting at offset, and remember where they start.
+	 *
+	 * @return the number of events copied.
+	 */
+	int peek(ByteBuffer[] batch, int offset) {
+		synchronized(ring) {
+			int count = (int) Math.min(tail - head, batch.length - offset);
+			for(int i = 0; i < count; i++) batch[offset + i] = ring[index(head + i)].buffer();
+			peeked = head;
+			return count;
+		}
+	}
+
+	/**
+	 * Drop events up to (but not including) a sequence number, once they have been sent. Events the lag policy has
+	 * already dropped are skipped.
+	 *
+	 * @param upTo
+	 */
+	void drained(long upTo) {
+		synchronized(ring) {
+			while(head < upTo) ring[index(head++)] = null;
+		}
+	}
+
+	/**
+	 * Close the channel and tell everyone who is interested. Called on the writer thread, or on whatever thread
+	 * finds out the stream can't be attached.
+	 */
+	void close() {
+		synchronized(disconnectListeners) {
+			if(closed) return;
+			closed = true;
+		}
+		synchronized(ring) {
+			Arrays.fill(ring, null);
+			head = tail;
+		}
+		current = null;
+		if(key != null) key.cancel();
+		if(channel != null) {
+			try {
+				channel.close();
+			} catch(IOException ignored) {
+			}
+		}
+		try {
+			onDisconnect();
+			if(pool != null) pool.removeStream(this);
+			for(Runnable listener : disconnectListeners) listener.run();
+		} catch(Exception e) {
+			CrimsonLog.warning("Exception while disconnecting an SSE stream!");
+			CrimsonLog.warning(e);
+		}
+	}
+
+	private int index(long sequence) {
+		return (int) (sequence % ring.length);
 	}
 
 }
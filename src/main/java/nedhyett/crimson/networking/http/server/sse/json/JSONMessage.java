@@ -29,11 +29,9 @@ import nedhyett.crimson.utility.json.JSONWriter;
 import java.io.ByteArrayOutputStream;
 
 /**
- * Allows SSE messages to be encoded in JSON instead of just plaintext. The SSEStream class implements logic for handling
+ * Allows SSE messages to be encoded in JSON instead of just plaintext. The SSEFrame class implements logic for handling
  * this class specifically.
  * <p>
- * TODO: make SSEStream only call this once inside a SSEPool instead of for every client.
- * <p>
  * (Created on 25/03/2015)
  *
  * @author Ned Hyett
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.threading;
+
+import nedhyett.crimson.logging.CrimsonLog;
+import nedhyett.crimson.logging.MiniLogger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a fixed set of single threaded lanes. Tasks submitted with the same key always go
+ * to the same lane, so they run one at a time in the order they were submitted, while tasks with
+ * different keys run in parallel.
+ *
+ * @author Ned Hyett
+ */
+public class PartitionedExecutor {
+
+	private final MiniLogger logger;
+
+	private final ExecutorService[] lanes;
+
+	/**
+	 * Used to spread tasks without a key over the lanes.
+	 */
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Create an executor with one lane per available processor.
+	 *
+	 * @param name the name used for the lane threads.
+	 */
+	public PartitionedExecutor(String name) {
+		this(name, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create an executor.
+	 *
+	 * @param name  the name used for the lane threads.
+	 * @param lanes the number of lanes (threads).
+	 */
+	public PartitionedExecutor(String name, int lanes) {
+		if(lanes < 1) throw new IllegalArgumentException("Need at least one lane!");
+		this.logger = CrimsonLog.spawnLogger("PartitionedExecutor - " + name);
+		this.lanes = new ExecutorService[lanes];
+		for(int i = 0; i < lanes; i++) {
+			final String threadName = name + " - Lane " + i;
+			this.lanes[i] = Executors.newSingleThreadExecutor((r) -> {
+				Thread t = new Thread(r, threadName);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * Run a task after every task previously submitted with an equal key.
+	 *
+	 * @param key  the ordering key.
+	 * @param task the task.
+	 *
+	 * @throws RejectedExecutionException if the executor has been shut down.
+	 */
+	public void execute(Object key, Runnable task) {
+		lane(key).execute(wrap(task));
+	}
+
+	/**
+	 * Run a task on whichever lane is next in turn. No ordering is guaranteed against other tasks.
+	 *
+	 * @param task the task.
+	 *
+	 * @throws RejectedExecutionException if the executor has been shut down.
+	 */
+	public void execute(Runnable task) {
+		lanes[Math.floorMod(next.getAndIncrement(), lanes.length)].execute(wrap(task));
+	}
+
+	/**
+	 * Get the number of lanes.
+	 *
+	 * @return the number of lanes.
+	 */
+	public int getLanes() {
+		return lanes.length;
+	}
+
+	/**
+	 * Stop accepting tasks. Tasks already queued will still run.
+	 */
+	public void shutdown() {
+		for(ExecutorService lane : lanes) lane.shutdown();
+	}
+
+	/**
+	 * Wait for every queued task to finish after a shutdown.
+	 *
+	 * @param timeout the maximum time to wait.
+	 * @param unit    the unit of the timeout.
+	 *
+	 * @return true if all lanes finished, false if the timeout ran out first.
+	 *
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(ExecutorService lane : lanes) {
+			if(!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+		}
+		return true;
+	}
+
+	private ExecutorService lane(Object key) {
+		if(key == null) throw new IllegalArgumentException("Key cannot be null!");
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return lanes[Math.floorMod(h, lanes.length)];
+	}
+
+	/**
+	 * A task that throws must not kill the lane's thread (the executor would replace it, but the
+	 * exception would go nowhere), so log it here instead.
+	 */
+	private Runnable wrap(Runnable task) {
+		return () -> {
+			try {
+				task.run();
+			} catch(Throwable t) {
+				logger.severe("Task failed!");
+				logger.severe(t);
+			}
+		};
+	}
+
+}
@@ -163,26 +163,62 @@ public class StreamUtils {
 	}
 
 	/**
-	 * Pulls data from an InputStream and writes it into an OutputStream.
+	 * Pulls data from an InputStream and writes it into an OutputStream until the end of the InputStream is reached.
 	 *
 	 * @param in
 	 * @param out
 	 */
 	public static void bridge(InputStream in, OutputStream out) {
 		try {
-			byte[] buf = new byte[Constants.BUFFER_SIZE];
-			while(in.available() > 0) {
-				int size = in.read(buf);
-				out.write(buf, 0, size);
-			}
-		} catch(IndexOutOfBoundsException e) {
-
+			copy(in, out);
 		} catch(Exception e) {
 			CrimsonLog.warning("Failure during stream bridge!");
 			CrimsonLog.warning(e);
 		}
 	}
 
+	/**
+	 * Copies everything left in an InputStream into an OutputStream, blocking until the end of the InputStream is
+	 * reached. Unlike {@link #bridge(InputStream, OutputStream)}, errors are passed on to the caller.
+	 *
+	 * @param in
+	 * @param out
+	 *
+	 * @return the number of bytes copied.
+	 *
+	 * @throws IOException
+	 */
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buf = new byte[Constants.BUFFER_SIZE];
+		long total = 0;
+		int size;
+		while((size = in.read(buf)) != -1) {
+			out.write(buf, 0, size);
+			total += size;
+		}
+		return total;
+	}
+
+	/**
+	 * Copies exactly length bytes from an InputStream into an OutputStream, leaving anything after them unread.
+	 *
+	 * @param in
+	 * @param out
+	 * @param length the number of bytes to copy.
+	 *
+	 * @throws IOException if the InputStream ends before length bytes were read.
+	 */
+	public static void copy(InputStream in, OutputStream out, long length) throws IOException {
+		byte[] buf = new byte[Constants.BUFFER_SIZE];
+		long remaining = length;
+		while(remaining > 0) {
+			int size = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+			if(size == -1) throw new EOFException("Stream ended " + remaining + " bytes short of " + length + "!");
+			out.write(buf, 0, size);
+			remaining -= size;
+		}
+	}
+
 	public static InputStream putInStream(byte[] in) {
 		return new ByteArrayInputStream(in);
 	}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Ned Hyett.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package nedhyett.crimson.networking.http.server;
+
+import nedhyett.crimson.networking.http.HttpMethod;
+import nedhyett.crimson.networking.http.HttpRequest;
+import nedhyett.crimson.networking.http.HttpResponse;
+import nedhyett.crimson.networking.http.HttpStatusCodes;
+import org.junit.Test;
+
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HttpRouterTest {
+
+	private static IHttpServerProvider named(String name) {
+		return named(name, true, HttpStatusCodes._200);
+	}
+
+	private static IHttpServerProvider named(String name, boolean valid, HttpStatusCodes code) {
+		return new IHttpServerProvider() {
+
+			@Override
+			public boolean requestIsValid(HttpRequest request, Socket socket) {
+				return valid;
+			}
+
+			@Override
+			public HttpResponse handle(HttpRequest request, HttpQueryData data, Socket s) {
+				HttpResponse response = new HttpResponse(code);
+				response.addResponseBodyLine(name);
+				return response;
+			}
+
+		};
+	}
+
+	/**
+	 * Route a request and return the name of the provider that answered it, or null.
+	 */
+	private static String route(HttpRouter router, String method, String page) throws Exception {
+		HttpRequest request = new HttpRequest(Arrays.asList(method + " " + page + " HTTP/1.1", "Host: localhost"));
+		HttpResponse response = router.route(request, request.getQueryData(), null);
+		return response == null ? null : new String(response.getResponseBytes(), StandardCharsets.UTF_8).trim();
+	}
+
+	@Test
+	public void pageIsOfferedBeforeTheMountAboveIt() throws Exception {
+		HttpRouter router = new HttpRouter();
+		router.add("/static/*", named("mount"));
+		router.add("/static/index", named("page"));
+		assertEquals("page", route(router, "GET", "/static/index"));
+		assertEquals("mount", route(router, "GET", "/static/other"));
+		assertEquals("mount", route(router, "GET", "/static/index/deeper"));
+	}
+
+	@Test
+	public void deepestMountIsOfferedFirst() throws Exception {
+		HttpRouter router = new HttpRouter();
+		router.add("/*", named("root"));
+		router.add("/a/*", named("a"));
+		router.add("/a/b/*", named("b"));
+		assertEquals("b", route(router, "GET", "/a/b/c"));
+		assertEquals("a", route(router, "GET", "/a/x/c"));
+		assertEquals("root", route(router, "GET", "/elsewhere"));
+		assertEquals("root", route(router, "GET", "/"));
+	}
+
+	@Test
+	public void notFoundAndInvalidFallThroughToTheNextMountUp() throws Exception {
+		HttpRouter router = new HttpRouter();
+		router.add("/*", named("root"));
+		router.add("/a/*", named("missing", true, HttpStatusCodes._404));
+		router.add("/a/b/*", named("refuses", false, HttpStatusCodes._200));
+		assertEquals("root", route(router, "GET", "/a/b/c"));
+	}
+
+	@Test
+	public void unmatchedPathGivesNull() throws Exception {
+		HttpRouter router = new HttpRouter();
+		router.add("/only", named("only"));
+		assertNull(route(router, "GET", "/other"));
+		assertNull(route(router, "GET", "/only/below"));
+	}
+
+	@Test
+	public void headFallsBackToGet() throws Exception {
+		HttpRouter router = new HttpRouter();
+		router.add(HttpMethod.GET, "/page", named("get"));
+		assertEquals("get", route(router, "HEAD", "/page"));
+		assertNull(route(router, "POST", "/page"));
+	}
+
+	@Test
+	public void methodRouteWinsOverAnyMethod() throws Exception {
+		HttpRouter router = new HttpRouter();
+		router.add("/page", named("any"));
+		router.add(HttpMethod.POST, "/page", named("post"));
+		assertEquals("post", route(router, "POST", "/page"));
+		assertEquals("any", route(router, "GET", "/page"));
+	}
+
+	@Test
+	public void removingAMethodRouteKeepsTheOthers() throws Exception {
+		HttpRouter router = new HttpRouter();
+		router.add("/page", named("any"));
+		router.add(HttpMethod.POST, "/page", named("post"));
+		router.add(HttpMethod.GET, "/page", named("get"));
+		router.remove(HttpMethod.POST, "/page");
+		assertEquals("any", route(router, "POST", "/page"));
+		assertEquals("get", route(router, "GET", "/page"));
+		router.remove(null, "/page");
+		assertNull(route(router, "POST", "/page"));
+		assertEquals("get", route(router, "GET", "/page"));
+	}
+
+	@Test
+	public void routersNest() throws Exception {
+		HttpRouter inner = new HttpRouter();
+		inner.add("/api/users", named("users"));
+		HttpRouter router = new HttpRouter();
+		router.add("/api/*", inner);
+		router.add("/*", named("root"));
+		assertEquals("users", route(router, "GET", "/api/users"));
+		assertEquals("root", route(router, "GET", "/api/other"));
+	}
+
+}
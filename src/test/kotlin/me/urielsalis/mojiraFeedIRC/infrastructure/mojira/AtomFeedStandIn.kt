@@ -0,0 +1,65 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
+
+import com.sun.net.httpserver.HttpServer
+import java.net.InetSocketAddress
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A local stand-in for the Mojira activity feed. It serves whatever body is set, with an ETag
+ * and a Last-Modified date, and answers 304 when a request carries matching validators.
+ */
+class AtomFeedStandIn(private val sendEtag: Boolean = true) : AutoCloseable {
+    private val server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+    private var version = 0
+
+    @Volatile
+    var body = ""
+        set(value) {
+            field = value
+            version++
+        }
+
+    val requests = AtomicInteger()
+    val notModified = AtomicInteger()
+
+    val url: String
+        get() = "http://127.0.0.1:${server.address.port}/activity"
+
+    init {
+        server.createContext("/activity") { exchange ->
+            requests.incrementAndGet()
+            val etag = "\"v$version\""
+            val lastModified = "Wed, 0${version % 9 + 1} Jan 2020 00:00:00 GMT"
+            val conditional = if (sendEtag) exchange.requestHeaders.getFirst("If-None-Match") == etag
+            else exchange.requestHeaders.getFirst("If-Modified-Since") == lastModified
+            if (sendEtag) exchange.responseHeaders.add("ETag", etag)
+            exchange.responseHeaders.add("Last-Modified", lastModified)
+            if (conditional) {
+                notModified.incrementAndGet()
+                exchange.sendResponseHeaders(304, -1)
+            } else {
+                val bytes = body.toByteArray()
+                exchange.responseHeaders.add("Content-Type", "application/atom+xml")
+                exchange.sendResponseHeaders(200, bytes.size.toLong())
+                exchange.responseBody.use { it.write(bytes) }
+            }
+            exchange.close()
+        }
+        server.start()
+    }
+
+    override fun close() = server.stop(0)
+
+    companion object {
+        /**
+         * An entry as Jira writes them: the title starts with the author's name.
+         */
+        fun entry(id: String, author: String = "someone", updated: String = "2020-01-01T00:00:00Z") =
+                "<entry><title>$author commented on $id</title><link href=\"https://bugs.mojang.com/browse/$id\"/>" +
+                        "<author><name>$author</name></author><updated>$updated</updated></entry>"
+
+        fun feed(vararg entries: String, trailer: String = "</feed>") =
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><feed xmlns=\"http://www.w3.org/2005/Atom\">" +
+                        entries.joinToString("") + trailer
+    }
+}
@@ -0,0 +1,69 @@
+package me.urielsalis.mojiraFeedIRC.infrastructure.mojira
+
+import me.urielsalis.mojiraFeedIRC.infrastructure.mojira.AtomFeedStandIn.Companion.entry
+import me.urielsalis.mojiraFeedIRC.infrastructure.mojira.AtomFeedStandIn.Companion.feed
+import java.io.ByteArrayInputStream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class FeedReaderTest {
+
+    @Test
+    fun unchangedFeedIsAnsweredWithNotModifiedByETag() {
+        AtomFeedStandIn().use { standIn ->
+            standIn.body = feed(entry("MC-2", updated = "2020-01-02T00:00:00Z"), entry("MC-1"))
+            val reader = FeedReader(standIn.url)
+            assertEquals(listOf("MC-1", "MC-2"), reader.fetch().feeds.map { it.link.substringAfterLast('/') })
+            assertTrue(reader.fetch().feeds.isEmpty())
+            assertEquals(2, standIn.requests.get())
+            assertEquals(1, standIn.notModified.get())
+        }
+    }
+
+    @Test
+    fun unchangedFeedIsAnsweredWithNotModifiedByLastModified() {
+        AtomFeedStandIn(sendEtag = false).use { standIn ->
+            standIn.body = feed(entry("MC-1"))
+            val reader = FeedReader(standIn.url)
+            assertEquals(1, reader.fetch().feeds.size)
+            assertTrue(reader.fetch().feeds.isEmpty())
+            assertEquals(1, standIn.notModified.get())
+        }
+    }
+
+    @Test
+    fun changedFeedIsFetchedAgain() {
+        AtomFeedStandIn().use { standIn ->
+            standIn.body = feed(entry("MC-1"))
+            val reader = FeedReader(standIn.url)
+            reader.fetch()
+            standIn.body = feed(entry("MC-2", updated = "2020-01-02T00:00:00Z"), entry("MC-1"))
+            assertEquals(listOf("MC-2"), reader.fetch().feeds.map { it.link.substringAfterLast('/') })
+            assertEquals(0, standIn.notModified.get())
+        }
+    }
+
+    @Test
+    fun pollStopsAtTheFirstEntryAlreadySeen() {
+        AtomFeedStandIn().use { standIn ->
+            standIn.body = feed(entry("MC-1"))
+            val reader = FeedReader(standIn.url)
+            reader.fetch()
+            // anything after the seen entry is never read, so it may as well be broken
+            standIn.body = feed(entry("MC-2", updated = "2020-01-02T00:00:00Z"), entry("MC-1"), trailer = "<entry><title>not xml")
+            assertEquals(listOf("MC-2"), reader.fetch().feeds.map { it.link.substringAfterLast('/') })
+        }
+    }
+
+    @Test
+    fun parserStopsWhenToldTo() {
+        val xml = feed(entry("MC-3"), entry("MC-2"), entry("MC-1"))
+        val seen = ArrayList<String>()
+        AtomStreamParser.parse(ByteArrayInputStream(xml.toByteArray())) { entry ->
+            seen.add(entry.link.substringAfterLast('/'))
+            entry.link.substringAfterLast('/') != "MC-2"
+        }
+        assertEquals(listOf("MC-3", "MC-2"), seen)
+    }
+}